@@ -18,9 +18,18 @@ package com.cyanogenmod.setupwizard.setup;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.util.SetupTimings;
+
+import org.namelessrom.setupwizard.SetupWizardApp;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public abstract class AbstractSetupData extends BroadcastReceiver implements SetupDataCallbacks {
     private static final String TAG = AbstractSetupData.class.getSimpleName();
@@ -28,6 +37,7 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
     protected final Context mContext;
     private ArrayList<SetupDataCallbacks> mListeners = new ArrayList<>();
     private PageList mPageList;
+    private final SetupJournal mJournal;
 
     private int mCurrentPageIndex = 0;
 
@@ -35,15 +45,40 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
 
     private boolean mIsFinished = false;
 
+    // Navigation or a saved instance state is newer than the journal
+    private boolean mProgressSinceCreate = false;
+
     private OnResumeRunnable mOnResumeRunnable;
 
+    private final Handler mHandler = new Handler();
+
+    private boolean mPageTreeChangePending;
+
+    private final Runnable mDispatchPageTreeChanged = new Runnable() {
+        @Override
+        public void run() {
+            mPageTreeChangePending = false;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onPageTreeChanged();
+            }
+        }
+    };
+
     public AbstractSetupData(Context context) {
         mContext = context;
+        mJournal = new SetupJournal(context);
         mPageList = onNewPageList();
+        new ReplayJournalTask().execute();
     }
 
     protected abstract PageList onNewPageList();
 
+    /**
+     * Called after saved or journaled progress was restored, the saved hidden
+     * states may not match the device anymore.
+     */
+    protected void onStateRestored() {}
+
     @Override
     public void onPageLoaded(Page page) {
         for (int i = 0; i < mListeners.size(); i++) {
@@ -53,13 +88,19 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
 
     @Override
     public void onPageTreeChanged() {
-        for (int i = 0; i < mListeners.size(); i++) {
-            mListeners.get(i).onPageTreeChanged();
+        if (mPageList != null) {
+            mPageList.invalidateVisibility();
+        }
+        // Pages are often hidden several at a time, tell the listeners once
+        if (!mPageTreeChangePending) {
+            mPageTreeChangePending = true;
+            mHandler.post(mDispatchPageTreeChanged);
         }
     }
 
     @Override
     public void onFinish() {
+        SetupTimings.getInstance().start(SetupTimings.PHASE_FINISH, SetupTimings.KEY_SETUP);
         for (int i = 0; i < mListeners.size(); i++) {
             mListeners.get(i).onFinish();
         }
@@ -86,9 +127,31 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
         return mPageList.getPage(mCurrentPageIndex);
     }
 
+    /**
+     * @return The page shown if the user goes forward now, or null on the last page.
+     */
+    public Page getNextVisiblePage() {
+        return mPageList.getPage(mPageList.getNextVisibleIndex(mCurrentPageIndex));
+    }
+
     @Override
     public boolean isCurrentPage(Page page) {
-        return page != null && page.getKey().equals(getCurrentPage().getKey());
+        if (page == null) {
+            return false;
+        }
+        Page current = getCurrentPage();
+        return page == current || page.getKey().equals(current.getKey());
+    }
+
+    public int getPageCount() {
+        return mPageList.size();
+    }
+
+    /**
+     * @return The key of the page at {@code index}, without building the page.
+     */
+    public String getPageKey(int index) {
+        return mPageList.getFactory(index).getKey();
     }
 
     public boolean isFirstPage() {
@@ -105,7 +168,11 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
             @Override
             public void run() {
                 if (!getCurrentPage().doNextAction()) {
+                    Page previous = getCurrentPage();
                     if (advanceToNextUnhidden()) {
+                        journalProgress(previous);
+                        SetupTimings.getInstance().start(SetupTimings.PHASE_LOAD,
+                                getCurrentPage().getKey());
                         for (int i = 0; i < mListeners.size(); i++) {
                             mListeners.get(i).onNextPage();
                         }
@@ -122,7 +189,11 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
             @Override
             public void run() {
                 if (!getCurrentPage().doPreviousAction()) {
+                    Page previous = getCurrentPage();
                     if (advanceToPreviousUnhidden()) {
+                        journalProgress(previous);
+                        SetupTimings.getInstance().start(SetupTimings.PHASE_LOAD,
+                                getCurrentPage().getKey());
                         for (int i = 0; i < mListeners.size(); i++) {
                             mListeners.get(i).onPreviousPage();
                         }
@@ -133,33 +204,63 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
         doPreviousNext(runnable);
     }
 
+    private void journalProgress(Page previous) {
+        mProgressSinceCreate = true;
+        mJournal.recordPageData(previous.getKey(), previous.getData());
+        mJournal.recordNavigation(getCurrentPage().getKey());
+        if (mJournal.needsCompaction()) {
+            mJournal.compact(getState());
+        }
+    }
+
     private boolean advanceToNextUnhidden() {
-        while (mCurrentPageIndex < mPageList.size()) {
-            mCurrentPageIndex++;
-            if (!getCurrentPage().isHidden()) {
-                return true;
-            }
+        int next = mPageList.getNextVisibleIndex(mCurrentPageIndex);
+        if (next < 0) {
+            return false;
         }
-        return false;
+        mCurrentPageIndex = next;
+        return true;
     }
 
     private boolean advanceToPreviousUnhidden() {
-        while (mCurrentPageIndex > 0) {
-            mCurrentPageIndex--;
-            if (!getCurrentPage().isHidden()) {
-                return true;
-            }
+        int previous = mPageList.getPreviousVisibleIndex(mCurrentPageIndex);
+        if (previous < 0) {
+            return false;
+        }
+        mCurrentPageIndex = previous;
+        return true;
+    }
+
+    /**
+     * Restores what {@link #save()} returned. Only pages whose data differs are
+     * reset, so only those report being loaded again.
+     */
+    public void load(byte[] savedState) {
+        SetupState state = SetupState.fromByteArray(savedState);
+        if (state != null) {
+            mProgressSinceCreate = true;
+            restore(state);
         }
-        return false;
     }
 
-    public void load(Bundle savedValues) {
-        for (String key : savedValues.keySet()) {
-            Page page = mPageList.getPage(key);
-            if (page != null) {
-                page.resetData(savedValues.getBundle(key));
+    private void restore(SetupState state) {
+        int index = mPageList.indexOf(state.currentKey);
+        if (index >= 0) {
+            mCurrentPageIndex = index;
+        }
+        // Hidden states only make sense against the same list of pages
+        if (state.hidden.length == mPageList.size()) {
+            for (int i = 0; i < state.hidden.length; i++) {
+                mPageList.getFactory(i).setHidden(state.hidden[i]);
+            }
+        }
+        for (Map.Entry<String, Bundle> entry : state.data.entrySet()) {
+            Page page = mPageList.getPage(entry.getKey());
+            if (page != null && !SetupState.sameData(page.getData(), entry.getValue())) {
+                page.resetData(entry.getValue());
             }
         }
+        onStateRestored();
     }
 
     private void doPreviousNext(Runnable runnable) {
@@ -172,10 +273,16 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
 
     public void onDestroy() {
         mOnResumeRunnable = null;
+        mHandler.removeCallbacks(mDispatchPageTreeChanged);
+        mPageTreeChangePending = false;
     }
 
     public void onPause() {
         mIsResumed = false;
+        if (!mIsFinished) {
+            Page page = getCurrentPage();
+            mJournal.recordPageData(page.getKey(), page.getData());
+        }
     }
 
     public void onResume() {
@@ -187,15 +294,21 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
 
     public void finishPages() {
         mIsFinished = true;
-        for (Page page : mPageList.values()) {
-            page.onFinishSetup();
+        mJournal.delete();
+        for (int i = 0; i < mPageList.size(); i++) {
+            PageFactory factory = mPageList.getFactory(i);
+            // Hidden pages never built have nothing to finish. Visible ones were gone
+            // through, a restore may just have skipped building them.
+            if (factory.isCreated() || !factory.isHidden()) {
+                factory.getPage().onFinishSetup();
+            }
         }
     }
 
     @Override
-    public void addFinishRunnable(Runnable runnable) {
+    public void addFinishRunnable(FinishTask task) {
         for (int i = 0; i < mListeners.size(); i++) {
-            mListeners.get(i).addFinishRunnable(runnable);
+            mListeners.get(i).addFinishRunnable(task);
         }
     }
 
@@ -203,12 +316,25 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
         return mIsFinished;
     }
 
-    public Bundle save() {
-        Bundle bundle = new Bundle();
-        for (Page page : mPageList.values()) {
-            bundle.putBundle(page.getKey(), page.getData());
+    public byte[] save() {
+        byte[] state = getState().toByteArray();
+        if (SetupWizardApp.DEBUG) Log.d(TAG, "saved state: " + state.length + " bytes");
+        return state;
+    }
+
+    private SetupState getState() {
+        boolean[] hidden = new boolean[mPageList.size()];
+        for (int i = 0; i < hidden.length; i++) {
+            hidden[i] = mPageList.getFactory(i).isHidden();
         }
-        return bundle;
+        HashMap<String, Bundle> data = new HashMap<>();
+        // Pages never built have no data to save
+        for (Page page : mPageList.getCreatedPages()) {
+            if (!page.getData().isEmpty()) {
+                data.put(page.getKey(), page.getData());
+            }
+        }
+        return new SetupState(mPageList.getFactory(mCurrentPageIndex).getKey(), hidden, data);
     }
 
     public void registerListener(SetupDataCallbacks listener) {
@@ -219,6 +345,51 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
         mListeners.remove(listener);
     }
 
+    /**
+     * Reads the journal on the serial executor, ahead of the writes of any record
+     * made meanwhile. Its progress is applied unless the user moved on or a saved
+     * instance state was restored in the meantime.
+     */
+    private class ReplayJournalTask extends AsyncTask<Void, Void, SetupState> {
+
+        @Override
+        protected SetupState doInBackground(Void... params) {
+            return mJournal.replay();
+        }
+
+        @Override
+        protected void onPostExecute(SetupState journaled) {
+            if (journaled == null || mIsFinished) {
+                return;
+            }
+            if (!mProgressSinceCreate) {
+                final int shownIndex = mCurrentPageIndex;
+                restore(journaled);
+                if (mPageList.getFactory(mCurrentPageIndex).isHidden()) {
+                    advanceToNextUnhidden();
+                }
+                if (mCurrentPageIndex != shownIndex) {
+                    showRestoredPage();
+                }
+            }
+            // Start over from a clean snapshot, the old file may end in a torn record
+            mJournal.compact(getState());
+        }
+    }
+
+    private void showRestoredPage() {
+        doPreviousNext(new Runnable() {
+            @Override
+            public void run() {
+                SetupTimings.getInstance().start(SetupTimings.PHASE_LOAD,
+                        getCurrentPage().getKey());
+                for (int i = 0; i < mListeners.size(); i++) {
+                    mListeners.get(i).onNextPage();
+                }
+            }
+        });
+    }
+
     private static class OnResumeRunnable implements Runnable {
 
         private final AbstractSetupData mAbstractSetupData;
@@ -20,67 +20,170 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
-import android.telephony.TelephonyManager;
+import android.net.NetworkInfo;
 import android.util.Log;
+import android.view.Choreographer;
 
 import com.android.internal.telephony.TelephonyIntents;
 import org.namelessrom.setupwizard.SetupWizardApp;
 import org.namelessrom.setupwizard.device.DeviceSpecificPages;
 
-import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
+import com.cyanogenmod.setupwizard.util.CaptivePortalMonitor;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CMSetupWizardData extends AbstractSetupData {
     private static final String TAG = CMSetupWizardData.class.getSimpleName();
 
-    private boolean mTimeSet = false;
-    private boolean mTimeZoneSet = false;
+    private int mPendingSignals;
+    private boolean mUpdateScheduled;
+
+    // Broadcasts received per action vs. page updates actually run
+    private final HashMap<String, int[]> mReceivedActions = new HashMap<>();
+    private int mReceivedCount;
+    private int mUpdateCount;
+
+    private final Choreographer.FrameCallback mUpdatePages = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            updatePages();
+        }
+    };
+
+    // Created on first use, which is from the super constructor. No initializers,
+    // those would run after it and drop what it created.
+    private DeviceStateSnapshot mDeviceState;
+    private PageVisibilityEngine mVisibilityEngine;
 
     public CMSetupWizardData(Context context) {
         super(context);
     }
 
+    private DeviceStateSnapshot getDeviceState() {
+        if (mDeviceState == null) {
+            mDeviceState = DeviceStateSnapshot.getInstance(mContext);
+        }
+        return mDeviceState;
+    }
+
+    private PageVisibilityEngine getVisibilityEngine() {
+        if (mVisibilityEngine == null) {
+            mVisibilityEngine = new PageVisibilityEngine(mContext);
+        }
+        return mVisibilityEngine;
+    }
+
     @Override
     protected PageList onNewPageList() {
-        ArrayList<Page> pages = new ArrayList<>();
-        if (SetupWizardUtils.hasLeanback(mContext)) {
-            pages.add(new BluetoothSetupPage(mContext, this));
-        }
-        pages.add(new WelcomePage(mContext, this));
-        pages.add(new WifiSetupPage(mContext, this));
-        if (SetupWizardUtils.hasTelephony(mContext)) {
-            pages.add(new SimCardMissingPage(mContext, this).setHidden(isSimInserted()));
+        final DeviceStateSnapshot deviceState = getDeviceState();
+        final PageVisibilityEngine visibilityEngine = getVisibilityEngine();
+        ArrayList<PageFactory> pages = new ArrayList<>();
+        if (deviceState.hasLeanback()) {
+            pages.add(new PageFactory(this, BluetoothSetupPage.TAG, null) {
+                @Override
+                protected Page onCreatePage() {
+                    return new BluetoothSetupPage(mContext, CMSetupWizardData.this);
+                }
+            });
+        }
+        // The first page is shown right away
+        pages.add(PageFactory.of(new WelcomePage(mContext, this)));
+        pages.add(new PageFactory(this, WifiSetupPage.TAG, null) {
+            @Override
+            protected Page onCreatePage() {
+                return new WifiSetupPage(mContext, CMSetupWizardData.this);
+            }
+        });
+        if (deviceState.hasTelephony()) {
+            pages.add(new PageFactory(this, SimCardMissingPage.TAG,
+                    SimCardMissingPage.VISIBILITY_RULE) {
+                @Override
+                protected Page onCreatePage() {
+                    return new SimCardMissingPage(mContext, CMSetupWizardData.this);
+                }
+            });
             if (SetupWizardApp.DEBUG) Log.d(TAG, "added sim card missing page");
         }
-        if (SetupWizardUtils.isMultiSimDevice(mContext)) {
-            pages.add(new ChooseDataSimPage(mContext, this).setHidden(!allSimsInserted()));
+        if (deviceState.isMultiSimDevice()) {
+            pages.add(new PageFactory(this, ChooseDataSimPage.TAG,
+                    ChooseDataSimPage.VISIBILITY_RULE) {
+                @Override
+                protected Page onCreatePage() {
+                    return new ChooseDataSimPage(mContext, CMSetupWizardData.this);
+                }
+            });
             if (SetupWizardApp.DEBUG) Log.d(TAG, "added choose data sim page");
         }
-        if (SetupWizardUtils.hasTelephony(mContext)) {
-            pages.add(new MobileDataPage(mContext, this)
-                    .setHidden(!isSimInserted() || SetupWizardUtils.isMobileDataEnabled(mContext)));
+        if (deviceState.hasTelephony()) {
+            pages.add(new PageFactory(this, MobileDataPage.TAG,
+                    MobileDataPage.VISIBILITY_RULE) {
+                @Override
+                protected Page onCreatePage() {
+                    return new MobileDataPage(mContext, CMSetupWizardData.this);
+                }
+            });
             if (SetupWizardApp.DEBUG) Log.d(TAG, "added mobile data page");
         }
-        if (SetupWizardUtils.hasGMS(mContext)) {
-            pages.add(new GmsAccountPage(mContext, this).setHidden(true));
+        if (deviceState.hasGMS()) {
+            pages.add(new PageFactory(this, GmsAccountPage.TAG,
+                    GmsAccountPage.VISIBILITY_RULE) {
+                @Override
+                protected Page onCreatePage() {
+                    return new GmsAccountPage(mContext, CMSetupWizardData.this);
+                }
+            });
             if (SetupWizardApp.DEBUG) Log.d(TAG, "added GMS page");
         }
-        pages.add(new CyanogenSettingsPage(mContext, this));
+        pages.add(new PageFactory(this, CyanogenSettingsPage.TAG, null) {
+            @Override
+            protected Page onCreatePage() {
+                return new CyanogenSettingsPage(mContext, CMSetupWizardData.this);
+            }
+        });
         addDeviceSpecificPages(pages);
-        pages.add(new OtherSettingsPage(mContext, this));
-        pages.add(new DateTimePage(mContext, this));
+        pages.add(new PageFactory(this, OtherSettingsPage.TAG, null) {
+            @Override
+            protected Page onCreatePage() {
+                return new OtherSettingsPage(mContext, CMSetupWizardData.this);
+            }
+        });
+        // The page is built late, but its timezone list is not
+        DateTimePage.preloadZones(mContext);
+        pages.add(new PageFactory(this, DateTimePage.TAG,
+                DateTimePage.VISIBILITY_RULE) {
+            @Override
+            protected Page onCreatePage() {
+                return new DateTimePage(mContext, CMSetupWizardData.this);
+            }
+        });
 
-        pages.add(new FinishPage(mContext, this));
-        return new PageList(pages.toArray(new Page[pages.size()]));
+        pages.add(new PageFactory(this, FinishPage.TAG, null) {
+            @Override
+            protected Page onCreatePage() {
+                return new FinishPage(mContext, CMSetupWizardData.this);
+            }
+        });
+        // Rules are first applied in the frame after onResume()
+        for (int i = 0; i < pages.size(); i++) {
+            visibilityEngine.register(pages.get(i));
+        }
+        return new PageList(pages.toArray(new PageFactory[pages.size()]));
     }
 
-    private void addDeviceSpecificPages(ArrayList<Page> pages) {
+    @Override
+    protected void onStateRestored() {
+        getVisibilityEngine().onSignalsChanged(PageVisibilityEngine.ALL_SIGNALS);
+    }
+
+    private void addDeviceSpecificPages(ArrayList<PageFactory> pages) {
         ArrayList<Page> deviceSpecificPages = new DeviceSpecificPages(mContext, this).getPages();
         final int devicePagesCount = deviceSpecificPages.size();
         if (devicePagesCount != 0) {
             for (final Page page : deviceSpecificPages) {
-                pages.add(page);
+                pages.add(PageFactory.of(page));
             }
         }
         if (SetupWizardApp.DEBUG) {
@@ -91,69 +194,109 @@ public class CMSetupWizardData extends AbstractSetupData {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (intent.getAction().equals(TelephonyIntents.ACTION_SIM_STATE_CHANGED)) {
-            ChooseDataSimPage chooseDataSimPage =
-                    (ChooseDataSimPage) getPage(ChooseDataSimPage.TAG);
-            if (chooseDataSimPage != null) {
-                chooseDataSimPage.setHidden(!allSimsInserted());
-            }
-            SimCardMissingPage simCardMissingPage =
-                    (SimCardMissingPage) getPage(SimCardMissingPage.TAG);
-            if (simCardMissingPage != null) {
-                simCardMissingPage.setHidden(isSimInserted());
-                if (isCurrentPage(simCardMissingPage)) {
-                    onNextPage();
-                }
+        final String action = intent.getAction();
+        int[] count = mReceivedActions.get(action);
+        if (count == null) {
+            count = new int[1];
+            mReceivedActions.put(action, count);
+        }
+        count[0]++;
+        mReceivedCount++;
+        if (action.equals(TelephonyIntents.ACTION_SIM_STATE_CHANGED)) {
+            getDeviceState().onSimStateChanged();
+            mPendingSignals |= PageVisibilityEngine.SIGNAL_SIM_INSERTED
+                    | PageVisibilityEngine.SIGNAL_ALL_SIMS_INSERTED
+                    | PageVisibilityEngine.SIGNAL_DATA_ENABLED;
+        } else if (action.equals(ConnectivityManager.CONNECTIVITY_ACTION) ||
+                action.equals(ConnectivityManager.CONNECTIVITY_ACTION_IMMEDIATE)) {
+            getDeviceState().onConnectivityChanged();
+            mPendingSignals |= PageVisibilityEngine.SIGNAL_NETWORK_CONNECTED;
+            NetworkInfo networkInfo =
+                    intent.getParcelableExtra(ConnectivityManager.EXTRA_NETWORK_INFO);
+            if (networkInfo != null && networkInfo.isConnected()
+                    && networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
+                // Have the answer ready by the time the Wi-Fi setup returns
+                CaptivePortalMonitor.getInstance(context).onWifiConnected();
             }
-            showHideMobileDataPage();
-        } else if (intent.getAction()
-                .equals(ConnectivityManager.CONNECTIVITY_ACTION) ||
-                intent.getAction()
-                        .equals(ConnectivityManager.CONNECTIVITY_ACTION_IMMEDIATE)) {
-            showHideAccountPages();
-        } else  if (intent.getAction()
-                .equals(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED)) {
-            showHideMobileDataPage();
-            showHideAccountPages();
-        } else if (intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED) ||
-                intent.getAction().equals(TelephonyIntents.ACTION_NETWORK_SET_TIMEZONE)) {
-            mTimeZoneSet = true;
-            showHideDateTimePage();
-        } else if (intent.getAction().equals(Intent.ACTION_TIME_CHANGED) ||
-                intent.getAction().equals(TelephonyIntents.ACTION_NETWORK_SET_TIME)) {
-            mTimeSet = true;
-            showHideDateTimePage();
+        } else  if (action.equals(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED)) {
+            getDeviceState().onDataConnectionChanged();
+            mPendingSignals |= PageVisibilityEngine.SIGNAL_DATA_ENABLED
+                    | PageVisibilityEngine.SIGNAL_NETWORK_CONNECTED;
+        } else if (action.equals(Intent.ACTION_TIMEZONE_CHANGED) ||
+                action.equals(TelephonyIntents.ACTION_NETWORK_SET_TIMEZONE)) {
+            getVisibilityEngine().setTimeZoneSet(true);
+            mPendingSignals |= PageVisibilityEngine.SIGNAL_TIMEZONE_SET;
+        } else if (action.equals(Intent.ACTION_TIME_CHANGED) ||
+                action.equals(TelephonyIntents.ACTION_NETWORK_SET_TIME)) {
+            getVisibilityEngine().setTimeSet(true);
+            mPendingSignals |= PageVisibilityEngine.SIGNAL_TIME_SET;
+        }
+        if (mPendingSignals != 0) {
+            // Broadcasts come in bursts, handle them all in the next frame
+            scheduleUpdatePages();
         }
     }
 
-    private void showHideAccountPages() {
-        boolean isConnected = SetupWizardUtils.isNetworkConnected(mContext);
-        GmsAccountPage gmsAccountPage =
-                (GmsAccountPage) getPage(GmsAccountPage.TAG);
-        if (gmsAccountPage != null) {
-            gmsAccountPage.setHidden(!isConnected);
+    @Override
+    public void onResume() {
+        super.onResume();
+        // Nothing invalidates the snapshot while our receiver is not registered
+        getDeviceState().invalidate();
+        mPendingSignals |= PageVisibilityEngine.SIGNAL_SIM_INSERTED
+                | PageVisibilityEngine.SIGNAL_ALL_SIMS_INSERTED
+                | PageVisibilityEngine.SIGNAL_DATA_ENABLED
+                | PageVisibilityEngine.SIGNAL_NETWORK_CONNECTED;
+        scheduleUpdatePages();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // A pending frame would update pages for an activity which is gone
+        Choreographer.getInstance().removeFrameCallback(mUpdatePages);
+        mUpdateScheduled = false;
+    }
+
+    private void scheduleUpdatePages() {
+        if (!mUpdateScheduled) {
+            mUpdateScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mUpdatePages);
         }
     }
 
-    private void showHideMobileDataPage() {
-        MobileDataPage mobileDataPage =
-                (MobileDataPage) getPage(MobileDataPage.TAG);
-        if (mobileDataPage != null) {
-            mobileDataPage.setHidden(!isSimInserted() ||
-                    SetupWizardUtils.isMobileDataEnabled(mContext));
+    private void updatePages() {
+        final int signals = mPendingSignals;
+        mPendingSignals = 0;
+        mUpdateScheduled = false;
+        mUpdateCount++;
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, String.format("updatePages: %d broadcasts handled in %d updates %s",
+                    mReceivedCount, mUpdateCount, getReceivedActionCounts()));
+            getDeviceState().logStats();
+        }
+        getVisibilityEngine().onSignalsChanged(signals);
+        if ((signals & PageVisibilityEngine.SIGNAL_SIM_INSERTED) != 0) {
+            Page current = getCurrentPage();
+            if (SimCardMissingPage.TAG.equals(current.getKey()) && current.isHidden()) {
+                onNextPage();
+            }
         }
     }
 
-    private void showHideDateTimePage() {
-        DateTimePage dateTimePage = (DateTimePage) getPage(DateTimePage.TAG);
-        if (dateTimePage != null) {
-            dateTimePage.setHidden(mTimeZoneSet & mTimeSet);
+    private String getReceivedActionCounts() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, int[]> entry : mReceivedActions.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue()[0]);
         }
+        return builder.append('}').toString();
     }
 
     public IntentFilter getIntentFilter() {
         IntentFilter filter = new IntentFilter();
-        if (SetupWizardUtils.hasTelephony(mContext)) {
+        if (getDeviceState().hasTelephony()) {
             filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
             filter.addAction(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED);
         }
@@ -166,31 +309,4 @@ public class CMSetupWizardData extends AbstractSetupData {
         return filter;
     }
 
-    // We only care that one sim is inserted
-    private boolean isSimInserted() {
-        TelephonyManager tm = TelephonyManager.from(mContext);
-        int simSlotCount = tm.getSimCount();
-        for (int i = 0; i < simSlotCount; i++) {
-            int state = tm.getSimState(i);
-            if (state != TelephonyManager.SIM_STATE_ABSENT
-                    && state != TelephonyManager.SIM_STATE_UNKNOWN) {
-                 return true;
-            }
-        }
-        return false;
-    }
-
-    // We only care that each slot has a sim
-    private boolean allSimsInserted() {
-        TelephonyManager tm = TelephonyManager.from(mContext);
-        int simSlotCount = tm.getSimCount();
-        for (int i = 0; i < simSlotCount; i++) {
-            int state = tm.getSimState(i);
-            if (state == TelephonyManager.SIM_STATE_ABSENT) {
-                return false;
-            }
-        }
-        return true;
-    }
-
 }
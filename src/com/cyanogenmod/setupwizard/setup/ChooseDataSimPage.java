@@ -46,6 +46,18 @@ public class ChooseDataSimPage extends SetupPage {
 
     public static final String TAG = "ChooseDataSimPage";
 
+    static final VisibilityRule VISIBILITY_RULE = new VisibilityRule() {
+        @Override
+        public int getSignals() {
+            return PageVisibilityEngine.SIGNAL_ALL_SIMS_INSERTED;
+        }
+
+        @Override
+        public boolean isHidden(PageVisibilityEngine signals) {
+            return !signals.allSimsInserted();
+        }
+    };
+
     private SubscriptionManager mSubscriptionManager;
 
     public ChooseDataSimPage(Context context, SetupDataCallbacks callbacks) {
@@ -66,6 +78,11 @@ public class ChooseDataSimPage extends SetupPage {
         return fragment;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return VISIBILITY_RULE;
+    }
+
     @Override
     public String getKey() {
         return TAG;
@@ -76,6 +93,11 @@ public class ChooseDataSimPage extends SetupPage {
         return R.string.setup_choose_data_sim;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.choose_data_sim_page;
+    }
+
 
     public static class ChooseDataSimFragment extends SetupPageFragment {
 
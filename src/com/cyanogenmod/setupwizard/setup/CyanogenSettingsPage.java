@@ -41,6 +41,8 @@ import android.widget.CheckBox;
 import android.widget.TextView;
 
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
+import com.cyanogenmod.setupwizard.util.FinishSettingsWriter;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 import com.cyanogenmod.setupwizard.util.WhisperPushUtils;
 import com.google.android.gms.common.ConnectionResult;
@@ -57,10 +59,43 @@ public class CyanogenSettingsPage extends SetupPage {
     public static final String KEY_ENABLE_NAV_KEYS = "enable_nav_keys";
     public static final String KEY_APPLY_DEFAULT_THEME = "apply_default_theme";
 
+    private static final String TASK_NAV_KEYS = "nav_keys";
+
+    // Guarded by this, every take starts a new generation so late prefetches are dropped
+    private Options mPrefetchedOptions;
+    private int mOptionsGeneration;
+
     public CyanogenSettingsPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
     }
 
+    @Override
+    public void prefetch() {
+        final int generation;
+        synchronized (this) {
+            generation = mOptionsGeneration;
+        }
+        final Options options = new Options(mContext);
+        synchronized (this) {
+            if (generation == mOptionsGeneration) {
+                mPrefetchedOptions = options;
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched options once, later calls load them again.
+     */
+    private Options takeOptions() {
+        final Options options;
+        synchronized (this) {
+            options = mPrefetchedOptions;
+            mPrefetchedOptions = null;
+            mOptionsGeneration++;
+        }
+        return options != null ? options : new Options(mContext);
+    }
+
     @Override
     public Fragment getFragment(FragmentManager fragmentManager, int action) {
         Fragment fragment = fragmentManager.findFragmentByTag(getKey());
@@ -84,15 +119,19 @@ public class CyanogenSettingsPage extends SetupPage {
         return R.string.setup_services_nameless;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.setup_cyanogen_services;
+    }
+
     private static void writeDisableNavkeysOption(Context context, boolean enabled) {
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final FinishSettingsWriter writer = FinishSettingsWriter.getInstance(context);
         final int defaultBrightness = context.getResources().getInteger(
                 com.android.internal.R.integer.config_buttonBrightnessSettingDefault);
 
-        Settings.Secure.putInt(context.getContentResolver(),
-                Settings.Secure.DEV_FORCE_SHOW_NAVBAR, enabled ? 1 : 0);
-        Settings.System.putInt(context.getContentResolver(),
-                Settings.System.HARDWARE_KEYS_DISABLE, enabled ? 1 : 0);
+        writer.putSecureInt(Settings.Secure.DEV_FORCE_SHOW_NAVBAR, enabled ? 1 : 0);
+        writer.putSystemInt(Settings.System.HARDWARE_KEYS_DISABLE, enabled ? 1 : 0);
 
         /* Save/restore button timeouts to disable them in softkey mode */
         SharedPreferences.Editor editor = prefs.edit();
@@ -103,22 +142,22 @@ public class CyanogenSettingsPage extends SetupPage {
             if (!prefs.contains("pre_navbar_button_backlight")) {
                 editor.putInt("pre_navbar_button_backlight", currentBrightness);
             }
-            Settings.Secure.putInt(context.getContentResolver(),
-                    Settings.Secure.BUTTON_BRIGHTNESS, 0);
+            writer.putSecureInt(Settings.Secure.BUTTON_BRIGHTNESS, 0);
         } else {
             int oldBright = prefs.getInt("pre_navbar_button_backlight", -1);
             if (oldBright != -1) {
-                Settings.Secure.putInt(context.getContentResolver(),
-                        Settings.Secure.BUTTON_BRIGHTNESS, oldBright);
+                writer.putSecureInt(Settings.Secure.BUTTON_BRIGHTNESS, oldBright);
                 editor.remove("pre_navbar_button_backlight");
             }
         }
+        // Already off the UI thread, and it has to be on disk before the app is killed
         editor.commit();
     }
 
     @Override
     public void onFinishSetup() {
-        getCallbacks().addFinishRunnable(new Runnable() {
+        getCallbacks().addFinishRunnable(new FinishTask(TASK_NAV_KEYS,
+                FinishTask.THREAD_BACKGROUND) {
             @Override
             public void run() {
                 if (getData().containsKey(KEY_ENABLE_NAV_KEYS)) {
@@ -145,7 +184,8 @@ public class CyanogenSettingsPage extends SetupPage {
         Bundle privacyData = getData();
         if (privacyData != null
                 && privacyData.containsKey(CyanogenSettingsPage.KEY_SEND_METRICS)) {
-            Settings.Secure.putInt(mContext.getContentResolver(), Settings.Secure.STATS_COLLECTION,
+            FinishSettingsWriter.getInstance(mContext).putSecureInt(
+                    Settings.Secure.STATS_COLLECTION,
                     privacyData.getBoolean(CyanogenSettingsPage.KEY_SEND_METRICS) ? 1 : 0);
         }
     }
@@ -166,8 +206,8 @@ public class CyanogenSettingsPage extends SetupPage {
         final int playServicesAvailable = GooglePlayServicesUtil
                 .isGooglePlayServicesAvailable(context);
         return playServicesAvailable != ConnectionResult.SUCCESS
-                || !SetupWizardUtils.hasTelephony(context)
-                || (SetupWizardUtils.hasTelephony(context) &&
+                || !DeviceStateSnapshot.getInstance(context).hasTelephony()
+                || (DeviceStateSnapshot.getInstance(context).hasTelephony() &&
                 SetupWizardUtils.isSimMissing(context));
     }
 
@@ -175,6 +215,25 @@ public class CyanogenSettingsPage extends SetupPage {
         return ThemeUtils.getDefaultThemePackageName(context).equals(ThemeConfig.SYSTEM_DEFAULT);
     }
 
+    // Which rows to hide, these take a few binder calls to find out
+    private static class Options {
+        final boolean hideThemeRow;
+        final boolean hideNavKeysRow;
+        final boolean hideSmsRow;
+
+        Options(Context context) {
+            hideThemeRow = hideThemeSwitch(context);
+            boolean hideNavKeysRow = true;
+            try {
+                IWindowManager windowManager = WindowManagerGlobal.getWindowManagerService();
+                hideNavKeysRow = windowManager.needsNavigationBar();
+            } catch (RemoteException e) {
+            }
+            this.hideNavKeysRow = hideNavKeysRow;
+            hideSmsRow = hideWhisperPush(context);
+        }
+    }
+
     public static class CyanogenSettingsFragment extends SetupPageFragment {
         private View mMetricsRow;
         private View mDefaultThemeRow;
@@ -227,6 +286,8 @@ public class CyanogenSettingsPage extends SetupPage {
 
         @Override
         protected void initializePage() {
+            final Options options =
+                    ((CyanogenSettingsPage) mCallbacks.getPage(mKey)).takeOptions();
             mMetricsRow = mRootView.findViewById(R.id.metrics);
             mMetricsRow.setOnClickListener(mMetricsClickListener);
             String osName = getString(R.string.os_name_nameless);
@@ -242,7 +303,7 @@ public class CyanogenSettingsPage extends SetupPage {
             mMetrics = (CheckBox) mRootView.findViewById(R.id.enable_metrics_checkbox);
 
             mDefaultThemeRow = mRootView.findViewById(R.id.theme);
-            mHideThemeRow = hideThemeSwitch(getActivity());
+            mHideThemeRow = options.hideThemeRow;
             if (mHideThemeRow) {
                 mDefaultThemeRow.setVisibility(View.GONE);
             } else {
@@ -261,12 +322,7 @@ public class CyanogenSettingsPage extends SetupPage {
             }
 
             mNavKeysRow = mRootView.findViewById(R.id.nav_keys);
-            mHideNavKeysRow = true;
-            try {
-                IWindowManager windowManager = WindowManagerGlobal.getWindowManagerService();
-                mHideNavKeysRow = windowManager.needsNavigationBar();
-            } catch (RemoteException e) {
-            }
+            mHideNavKeysRow = options.hideNavKeysRow;
 
             if (mHideNavKeysRow) {
                 mNavKeysRow.setVisibility(View.GONE);
@@ -286,7 +342,7 @@ public class CyanogenSettingsPage extends SetupPage {
                     0, useSecureSms.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             TextView secureSms = (TextView) mRootView.findViewById(R.id.secure_sms_summary);
             secureSms.setText(secureSmsSpan);
-            mHideSmsRow = hideWhisperPush(getActivity());
+            mHideSmsRow = options.hideSmsRow;
             if (mHideSmsRow) {
                 mSecureSmsRow.setVisibility(View.GONE);
             }
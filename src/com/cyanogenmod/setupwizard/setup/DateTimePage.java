@@ -28,15 +28,22 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.XmlResourceParser;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.format.DateFormat;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.DatePicker;
-import android.widget.SimpleAdapter;
+import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.TimePicker;
@@ -44,32 +51,71 @@ import android.widget.TimePicker;
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
 
 import org.namelessrom.setupwizard.R;
-import org.xmlpull.v1.XmlPullParserException;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class DateTimePage extends SetupPage {
 
     public static final String TAG = "DateTimePage";
 
-    private static final String KEY_ID = "id";  // value: String
-    private static final String KEY_DISPLAYNAME = "name";  // value: String
-    private static final String KEY_GMT = "gmt";  // value: String
-    private static final String KEY_OFFSET = "offset";  // value: int (Integer)
-    private static final String XMLTAG_TIMEZONE = "timezone";
+    static final VisibilityRule VISIBILITY_RULE = new VisibilityRule() {
+        @Override
+        public int getSignals() {
+            return PageVisibilityEngine.SIGNAL_TIME_SET
+                    | PageVisibilityEngine.SIGNAL_TIMEZONE_SET;
+        }
 
-    private static final int HOURS_1 = 60 * 60000;
+        @Override
+        public boolean isHidden(PageVisibilityEngine signals) {
+            return signals.isTimeSet() && signals.isTimeZoneSet();
+        }
+    };
 
+    private static FutureTask<TimeZoneList> sZonesTask;
 
     public DateTimePage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
+        preloadZones(context);
+    }
+
+    /**
+     * The page is reached late in the flow, build the sorted zones while
+     * the user goes through the earlier pages.
+     */
+    public static synchronized void preloadZones(Context context) {
+        if (sZonesTask != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sZonesTask = new FutureTask<TimeZoneList>(new Callable<TimeZoneList>() {
+            @Override
+            public TimeZoneList call() {
+                return loadZones(appContext);
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(sZonesTask);
+    }
+
+    private TimeZoneList getPreloadedZones() {
+        final FutureTask<TimeZoneList> task;
+        synchronized (DateTimePage.class) {
+            task = sZonesTask;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Unable to preload timezones", e);
+        }
+        return loadZones(mContext);
     }
 
     @Override
@@ -85,6 +131,11 @@ public class DateTimePage extends SetupPage {
         return fragment;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return VISIBILITY_RULE;
+    }
+
     @Override
     public String getKey() {
         return TAG;
@@ -95,6 +146,11 @@ public class DateTimePage extends SetupPage {
         return R.string.setup_datetime;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.setup_datetime_page;
+    }
+
     public static class DateTimeFragment extends SetupPageFragment
             implements TimePickerDialog.OnTimeSetListener, DatePickerDialog.OnDateSetListener {
 
@@ -104,9 +160,6 @@ public class DateTimePage extends SetupPage {
         private TextView mDateTextView;
         private TextView mTimeTextView;
 
-
-        private final Handler mHandler = new Handler();
-
         @Override
         public void onResume() {
             super.onResume();
@@ -129,7 +182,13 @@ public class DateTimePage extends SetupPage {
         @Override
         protected void initializePage() {
             final Spinner spinner = (Spinner) mRootView.findViewById(R.id.timezone_list);
-            final SimpleAdapter adapter = constructTimezoneAdapter(getActivity(), false);
+            final CheckBox sortByName =
+                    (CheckBox) mRootView.findViewById(R.id.timezone_sort_by_name);
+            final EditText search = (EditText) mRootView.findViewById(R.id.timezone_search);
+            final DateTimePage page = (DateTimePage) mCallbacks.getPage(mKey);
+            final TimeZoneList zones = page.getPreloadedZones();
+            final TimeZoneAdapter adapter = new TimeZoneAdapter(getActivity(), zones);
+            final boolean[] matches = new boolean[zones.rows.length];
             mCurrentTimeZone = TimeZone.getDefault();
             mDateView = mRootView.findViewById(R.id.date_item);
             mDateView.setOnClickListener(new View.OnClickListener() {
@@ -148,33 +207,69 @@ public class DateTimePage extends SetupPage {
             mDateTextView = (TextView)mRootView.findViewById(R.id.date_text);
             mTimeTextView = (TextView)mRootView.findViewById(R.id.time_text);
             // Pre-select current/default timezone
-            mHandler.post(new Runnable() {
+            int tzIndex = adapter.getPosition(mCurrentTimeZone.getID());
+            spinner.setAdapter(adapter);
+            if (tzIndex != -1) {
+                spinner.setSelection(tzIndex);
+            }
+            spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
                 @Override
-                public void run() {
-                    int tzIndex = getTimeZoneIndex(adapter, mCurrentTimeZone);
-                    spinner.setAdapter(adapter);
-                    if (tzIndex != -1) {
-                        spinner.setSelection(tzIndex);
+                public void onItemSelected(AdapterView<?> adapterView, View view, int position, long id) {
+                    final String tzId = adapter.getItem(position).id;
+                    if (mCurrentTimeZone != null && !mCurrentTimeZone.getID().equals(tzId)) {
+                        // Update the system timezone value
+                        final Activity activity = getActivity();
+                        final AlarmManager alarm = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
+                        alarm.setTimeZone(tzId);
+                        mCurrentTimeZone = TimeZone.getTimeZone(tzId);
                     }
-                    spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
-                        @Override
-                        public void onItemSelected(AdapterView<?> adapterView, View view, int position, long id) {
-                            final Map<?, ?> map = (Map<?, ?>) adapterView.getItemAtPosition(position);
-                            final String tzId = (String) map.get(KEY_ID);
-                            if (mCurrentTimeZone != null && !mCurrentTimeZone.getID().equals(tzId)) {
-                                // Update the system timezone value
-                                final Activity activity = getActivity();
-                                final AlarmManager alarm = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
-                                alarm.setTimeZone(tzId);
-                                mCurrentTimeZone = TimeZone.getTimeZone(tzId);
-                            }
 
-                        }
+                }
 
-                        @Override
-                        public void onNothingSelected(AdapterView<?> adapterView) {
+                @Override
+                public void onNothingSelected(AdapterView<?> adapterView) {
+                }
+            });
+            sortByName.setChecked(adapter.isSortedByName());
+            sortByName.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    final int position = spinner.getSelectedItemPosition();
+                    final String selectedId = position != AdapterView.INVALID_POSITION
+                            ? adapter.getItem(position).id : null;
+                    adapter.setSortedByName(isChecked);
+                    if (selectedId != null) {
+                        spinner.setSelection(adapter.getPosition(selectedId));
+                    }
+                }
+            });
+            search.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                }
+
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {
+                }
+
+                @Override
+                public void afterTextChanged(Editable s) {
+                    final int position = spinner.getSelectedItemPosition();
+                    final TimeZoneRow selected = position != AdapterView.INVALID_POSITION
+                            ? adapter.getItem(position) : null;
+                    if (TextUtils.getTrimmedLength(s) == 0) {
+                        adapter.setMatches(null);
+                    } else {
+                        zones.searchIndex.search(s, matches);
+                        // Searching only narrows the list, the zone changes when the user picks one
+                        if (selected != null) {
+                            matches[selected.index] = true;
                         }
-                    });
+                        adapter.setMatches(matches);
+                    }
+                    if (selected != null) {
+                        spinner.setSelection(adapter.getPosition(selected.id));
+                    }
                 }
             });
         }
@@ -233,106 +328,19 @@ public class DateTimePage extends SetupPage {
 
     }
 
-    private static SimpleAdapter constructTimezoneAdapter(Context context,
-            boolean sortedByName) {
-        final String[] from = new String[] {KEY_DISPLAYNAME, KEY_GMT};
-        final int[] to = new int[] {android.R.id.text1, android.R.id.text2};
-
-        final String sortKey = (sortedByName ? KEY_DISPLAYNAME : KEY_OFFSET);
-        final TimeZoneComparator comparator = new TimeZoneComparator(sortKey);
-        final List<HashMap<String, Object>> sortedList = getZones(context);
-        Collections.sort(sortedList, comparator);
-        final SimpleAdapter adapter = new SimpleAdapter(context,
-                sortedList,
-                R.layout.date_time_setup_custom_list_item_2,
-                from,
-                to);
-
-        return adapter;
-    }
-
-    private static List<HashMap<String, Object>> getZones(Context context) {
-        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
-        final long date = Calendar.getInstance().getTimeInMillis();
-        try {
-            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
-            while (xrp.next() != XmlResourceParser.START_TAG)
-                continue;
-            xrp.next();
-            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
-                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
-                        return myData;
-                    }
-                    xrp.next();
-                }
-                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
-                    String id = xrp.getAttributeValue(0);
-                    String displayName = xrp.nextText();
-                    addItem(myData, id, displayName, date);
-                }
-                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                    xrp.next();
-                }
-                xrp.next();
-            }
-            xrp.close();
-        } catch (XmlPullParserException xppe) {
-            Log.e(TAG, "Ill-formatted timezones.xml file");
-        } catch (java.io.IOException ioe) {
-            Log.e(TAG, "Unable to read timezones.xml file");
-        }
-
-        return myData;
-    }
-
-    private static void addItem(
-            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
-        final HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put(KEY_ID, id);
-        map.put(KEY_DISPLAYNAME, displayName);
-        final TimeZone tz = TimeZone.getTimeZone(id);
-        final int offset = tz.getOffset(date);
-        final int p = Math.abs(offset);
-        final StringBuilder name = new StringBuilder();
-        name.append("GMT");
-
-        if (offset < 0) {
-            name.append('-');
-        } else {
-            name.append('+');
-        }
-
-        name.append(p / (HOURS_1));
-        name.append(':');
-
-        int min = p / 60000;
-        min %= 60;
-
-        if (min < 10) {
-            name.append('0');
-        }
-        name.append(min);
-
-        map.put(KEY_GMT, name.toString());
-        map.put(KEY_OFFSET, offset);
-
-        myData.add(map);
+    public static TimeZoneList loadZones(Context context) {
+        final TimeZoneCatalog catalog = TimeZoneCatalog.getInstance(context);
+        return new TimeZoneList(getZones(catalog), new TimeZoneSearchIndex(catalog));
     }
 
-    private static int getTimeZoneIndex(SimpleAdapter adapter, TimeZone tz) {
-        final String defaultId = tz.getID();
-        final int listSize = adapter.getCount();
-        for (int i = 0; i < listSize; i++) {
-            // Using HashMap<String, Object> induces unnecessary warning.
-            final HashMap<?,?> map = (HashMap<?,?>)adapter.getItem(i);
-            final String id = (String)map.get(KEY_ID);
-            if (defaultId.equals(id)) {
-                // If current timezone is in this list, move focus to it
-                return i;
-            }
+    private static TimeZoneRow[] getZones(TimeZoneCatalog catalog) {
+        final int count = catalog.size();
+        final TimeZoneRow[] rows = new TimeZoneRow[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new TimeZoneRow(i, catalog.getId(i), catalog.getDisplayName(i),
+                    catalog.getGmtLabel(i), catalog.getOffset(i));
         }
-        return -1;
+        return rows;
     }
 
     private static void setDate(Context context, int year, int month, int day) {
@@ -362,36 +370,192 @@ public class DateTimePage extends SetupPage {
         }
     }
 
-    private static class TimeZoneComparator implements Comparator<HashMap<?, ?>> {
-        private String mSortingKey;
+    public static final class TimeZoneRow {
+        public final int index;
+        public final String id;
+        public final String displayName;
+        public final String gmtLabel;
+        public final int offset;
 
-        public TimeZoneComparator(String sortingKey) {
-            mSortingKey = sortingKey;
+        static final Comparator<TimeZoneRow> BY_OFFSET = new Comparator<TimeZoneRow>() {
+            @Override
+            public int compare(TimeZoneRow row1, TimeZoneRow row2) {
+                return Integer.compare(row1.offset, row2.offset);
+            }
+        };
+
+        static final Comparator<TimeZoneRow> BY_NAME = new Comparator<TimeZoneRow>() {
+            @Override
+            public int compare(TimeZoneRow row1, TimeZoneRow row2) {
+                return row1.displayName.compareTo(row2.displayName);
+            }
+        };
+
+        TimeZoneRow(int index, String id, String displayName, String gmtLabel, int offset) {
+            this.index = index;
+            this.id = id;
+            this.displayName = displayName;
+            this.gmtLabel = gmtLabel;
+            this.offset = offset;
         }
+    }
 
-        public void setSortingKey(String sortingKey) {
-            mSortingKey = sortingKey;
+    /**
+     * Catalog rows plus both display orders, computed once and shared by every adapter.
+     */
+    public static final class TimeZoneList {
+        final TimeZoneRow[] rows;
+        final HashMap<String, Integer> indices;
+        final TimeZoneSearchIndex searchIndex;
+        // position -> row index, and row index -> position, for each order
+        final int[] byOffset;
+        final int[] byName;
+        final int[] offsetPositions;
+        final int[] namePositions;
+
+        TimeZoneList(TimeZoneRow[] rows, TimeZoneSearchIndex searchIndex) {
+            final int count = rows.length;
+            this.rows = rows;
+            this.searchIndex = searchIndex;
+            indices = new HashMap<String, Integer>(count * 2);
+            for (int i = 0; i < count; i++) {
+                indices.put(rows[i].id, i);
+            }
+            byOffset = new int[count];
+            byName = new int[count];
+            offsetPositions = new int[count];
+            namePositions = new int[count];
+            computeOrder(TimeZoneRow.BY_OFFSET, byOffset, offsetPositions);
+            computeOrder(TimeZoneRow.BY_NAME, byName, namePositions);
         }
 
-        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
-            Object value1 = map1.get(mSortingKey);
-            Object value2 = map2.get(mSortingKey);
+        private void computeOrder(Comparator<TimeZoneRow> comparator, int[] order,
+                int[] positions) {
+            final TimeZoneRow[] sorted = rows.clone();
+            Arrays.sort(sorted, comparator);
+            for (int i = 0; i < sorted.length; i++) {
+                order[i] = sorted[i].index;
+                positions[sorted[i].index] = i;
+            }
+        }
+    }
+
+    public static class TimeZoneAdapter extends BaseAdapter {
+
+        private final LayoutInflater mInflater;
+        private final TimeZoneList mList;
+        private int[] mOrder;
+        private int[] mPositions;
+
+        // Rows left by the current search, in display order
+        private final int[] mVisible;
+        private final int[] mVisiblePositions;
+        private int mVisibleCount;
+        private boolean[] mMatches;
+
+        public TimeZoneAdapter(Context context, TimeZoneList list) {
+            mInflater = LayoutInflater.from(context);
+            mList = list;
+            mVisible = new int[list.rows.length];
+            mVisiblePositions = new int[list.rows.length];
+            setOrder(false);
+        }
 
-            /*
-             * This should never happen, but just in-case, put non-comparable
-             * items at the end.
-             */
-            if (!isComparable(value1)) {
-                return isComparable(value2) ? 1 : 0;
-            } else if (!isComparable(value2)) {
+        /**
+         * Only shows the rows whose catalog index is set in {@code matches},
+         * or every row if {@code matches} is null.
+         */
+        public void setMatches(boolean[] matches) {
+            mMatches = matches;
+            applyMatches();
+            notifyDataSetChanged();
+        }
+
+        private void applyMatches() {
+            if (mMatches == null) {
+                mVisibleCount = mOrder.length;
+                return;
+            }
+            int count = 0;
+            for (int i = 0; i < mOrder.length; i++) {
+                final int index = mOrder[i];
+                if (mMatches[index]) {
+                    mVisiblePositions[index] = count;
+                    mVisible[count++] = index;
+                } else {
+                    mVisiblePositions[index] = -1;
+                }
+            }
+            mVisibleCount = count;
+        }
+
+        public boolean isSortedByName() {
+            return mOrder == mList.byName;
+        }
+
+        public void setSortedByName(boolean sortedByName) {
+            if (sortedByName != isSortedByName()) {
+                setOrder(sortedByName);
+                applyMatches();
+                notifyDataSetChanged();
+            }
+        }
+
+        private void setOrder(boolean sortedByName) {
+            mOrder = sortedByName ? mList.byName : mList.byOffset;
+            mPositions = sortedByName ? mList.namePositions : mList.offsetPositions;
+        }
+
+        public int getPosition(String id) {
+            final Integer index = mList.indices.get(id);
+            if (index == null) {
                 return -1;
             }
+            return mMatches != null ? mVisiblePositions[index] : mPositions[index];
+        }
+
+        @Override
+        public int getCount() {
+            return mVisibleCount;
+        }
 
-            return ((Comparable) value1).compareTo(value2);
+        @Override
+        public TimeZoneRow getItem(int position) {
+            return mList.rows[mMatches != null ? mVisible[position] : mOrder[position]];
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return getItem(position).index;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final ViewHolder holder;
+            if (convertView == null) {
+                convertView = mInflater.inflate(
+                        R.layout.date_time_setup_custom_list_item_2, parent, false);
+                holder = new ViewHolder();
+                holder.name = (TextView) convertView.findViewById(android.R.id.text1);
+                holder.gmt = (TextView) convertView.findViewById(android.R.id.text2);
+                convertView.setTag(holder);
+            } else {
+                holder = (ViewHolder) convertView.getTag();
+            }
+            final TimeZoneRow row = getItem(position);
+            holder.name.setText(row.displayName);
+            holder.gmt.setText(row.gmtLabel);
+            return convertView;
         }
 
-        private boolean isComparable(Object value) {
-            return (value != null) && (value instanceof Comparable);
+        private static class ViewHolder {
+            TextView name;
+            TextView gmt;
         }
     }
 
@@ -58,6 +58,11 @@ public class FinishPage extends SetupPage {
         return R.string.setup_complete;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.setup_finished_page;
+    }
+
     @Override
     public boolean doNextAction() {
         getCallbacks().onFinish();
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyanogenmod.setupwizard.setup;
+
+/**
+ * Work done once setup is finalized. Tasks run once all tasks named as their
+ * dependencies are done, on the UI thread or on a background thread.
+ */
+public abstract class FinishTask {
+
+    public static final int THREAD_UI = 0;
+    public static final int THREAD_BACKGROUND = 1;
+
+    private final String mName;
+    private final int mThread;
+    private final String[] mDependencies;
+
+    protected FinishTask(String name, int thread, String... dependencies) {
+        mName = name;
+        mThread = thread;
+        mDependencies = dependencies;
+    }
+
+    public abstract void run();
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getThread() {
+        return mThread;
+    }
+
+    public String[] getDependencies() {
+        return mDependencies;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
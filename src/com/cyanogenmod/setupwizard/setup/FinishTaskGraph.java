@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyanogenmod.setupwizard.setup;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.util.SetupTimings;
+
+import org.namelessrom.setupwizard.SetupWizardApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link FinishTask}s in dependency order. Background tasks which do not
+ * depend on each other run concurrently on a small pool, each task is timed
+ * under {@link SetupTimings#PHASE_FINISH}.
+ */
+public class FinishTaskGraph {
+
+    private static final String TAG = FinishTaskGraph.class.getSimpleName();
+
+    public interface Listener {
+        void onFinishTasksDone();
+    }
+
+    private static final int POOL_SIZE = 3;
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FinishTask #" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static final ExecutorService sExecutor;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                sThreadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        sExecutor = executor;
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final LinkedHashMap<String, FinishTask> mTasks = new LinkedHashMap<>();
+
+    // Guarded by this once started
+    private final HashMap<String, ArrayList<FinishTask>> mDependents = new HashMap<>();
+    private final HashMap<String, Integer> mRemaining = new HashMap<>();
+    private int mDoneCount;
+
+    private Listener mListener;
+    private boolean mStarted;
+
+    public void add(FinishTask task) {
+        if (mStarted) {
+            throw new IllegalStateException("Task " + task + " added after start");
+        }
+        if (mTasks.containsKey(task.getName())) {
+            throw new IllegalArgumentException("Duplicate finish task " + task);
+        }
+        mTasks.put(task.getName(), task);
+    }
+
+    public boolean contains(String name) {
+        return mTasks.containsKey(name);
+    }
+
+    /**
+     * Starts every task without pending dependencies, the listener is called on
+     * the UI thread once all tasks ran.
+     */
+    public void start(Listener listener) {
+        mListener = listener;
+        mStarted = true;
+        final ArrayList<FinishTask> ready = new ArrayList<>();
+        synchronized (this) {
+            for (FinishTask task : mTasks.values()) {
+                for (String dependency : task.getDependencies()) {
+                    if (!mTasks.containsKey(dependency)) {
+                        throw new IllegalStateException(
+                                "Task " + task + " depends on unknown task " + dependency);
+                    }
+                    ArrayList<FinishTask> dependents = mDependents.get(dependency);
+                    if (dependents == null) {
+                        dependents = new ArrayList<>();
+                        mDependents.put(dependency, dependents);
+                    }
+                    dependents.add(task);
+                }
+                mRemaining.put(task.getName(), task.getDependencies().length);
+                if (task.getDependencies().length == 0) {
+                    ready.add(task);
+                }
+            }
+            checkAcyclic();
+        }
+        if (mTasks.isEmpty()) {
+            notifyDone();
+            return;
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            dispatch(ready.get(i));
+        }
+    }
+
+    private void checkAcyclic() {
+        HashMap<String, Integer> remaining = new HashMap<>(mRemaining);
+        ArrayList<String> queue = new ArrayList<>();
+        for (String name : mTasks.keySet()) {
+            if (remaining.get(name) == 0) {
+                queue.add(name);
+            }
+        }
+        for (int i = 0; i < queue.size(); i++) {
+            ArrayList<FinishTask> dependents = mDependents.get(queue.get(i));
+            if (dependents == null) {
+                continue;
+            }
+            for (FinishTask dependent : dependents) {
+                int count = remaining.get(dependent.getName()) - 1;
+                remaining.put(dependent.getName(), count);
+                if (count == 0) {
+                    queue.add(dependent.getName());
+                }
+            }
+        }
+        if (queue.size() != mTasks.size()) {
+            throw new IllegalStateException("Finish tasks have a dependency cycle");
+        }
+    }
+
+    private void dispatch(final FinishTask task) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                runTask(task);
+            }
+        };
+        if (task.getThread() == FinishTask.THREAD_UI) {
+            mHandler.post(runnable);
+        } else {
+            sExecutor.execute(runnable);
+        }
+    }
+
+    private void runTask(FinishTask task) {
+        final SetupTimings timings = SetupTimings.getInstance();
+        final long start = SystemClock.elapsedRealtime();
+        timings.start(SetupTimings.PHASE_FINISH, task.getName());
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // One failed task must not keep setup from finishing
+            Log.e(TAG, "Finish task " + task + " failed", e);
+        } finally {
+            timings.end(SetupTimings.PHASE_FINISH, task.getName());
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Finish task " + task + " took "
+                        + (SystemClock.elapsedRealtime() - start) + "ms on "
+                        + Thread.currentThread().getName());
+            }
+            // Even after an Error, or setup would never finish
+            onTaskDone(task);
+        }
+    }
+
+    private void onTaskDone(FinishTask task) {
+        final ArrayList<FinishTask> ready = new ArrayList<>();
+        final boolean allDone;
+        synchronized (this) {
+            ArrayList<FinishTask> dependents = mDependents.get(task.getName());
+            if (dependents != null) {
+                for (FinishTask dependent : dependents) {
+                    int count = mRemaining.get(dependent.getName()) - 1;
+                    mRemaining.put(dependent.getName(), count);
+                    if (count == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            mDoneCount++;
+            allDone = mDoneCount == mTasks.size();
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            dispatch(ready.get(i));
+        }
+        if (allDone) {
+            notifyDone();
+        }
+    }
+
+    private void notifyDone() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onFinishTasksDone();
+                }
+            }
+        });
+    }
+}
@@ -48,6 +48,18 @@ public class GmsAccountPage extends SetupPage {
 
     public static final String TAG = "GmsAccountPage";
 
+    static final VisibilityRule VISIBILITY_RULE = new VisibilityRule() {
+        @Override
+        public int getSignals() {
+            return PageVisibilityEngine.SIGNAL_NETWORK_CONNECTED;
+        }
+
+        @Override
+        public boolean isHidden(PageVisibilityEngine signals) {
+            return !signals.isNetworkConnected();
+        }
+    };
+
     public static final String ACTION_RESTORE = "com.google.android.setupwizard.RESTORE";
     private static final String RESTORE_WIZARD_SCRIPT =
             "android.resource://com.google.android.setupwizard/xml/wizard_script";
@@ -93,6 +105,11 @@ public class GmsAccountPage extends SetupPage {
         return mFragment;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return VISIBILITY_RULE;
+    }
+
     @Override
     public String getKey() {
         return TAG;
@@ -32,6 +32,7 @@ import android.widget.Switch;
 import android.widget.TextView;
 
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 
 import org.namelessrom.setupwizard.R;
@@ -40,6 +41,19 @@ public class MobileDataPage extends SetupPage {
 
     public static final String TAG = "MobileDataPage";
 
+    static final VisibilityRule VISIBILITY_RULE = new VisibilityRule() {
+        @Override
+        public int getSignals() {
+            return PageVisibilityEngine.SIGNAL_SIM_INSERTED
+                    | PageVisibilityEngine.SIGNAL_DATA_ENABLED;
+        }
+
+        @Override
+        public boolean isHidden(PageVisibilityEngine signals) {
+            return !signals.isSimInserted() || signals.isMobileDataEnabled();
+        }
+    };
+
     public MobileDataPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
     }
@@ -57,6 +71,11 @@ public class MobileDataPage extends SetupPage {
         return fragment;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return VISIBILITY_RULE;
+    }
+
     @Override
     public String getKey() {
         return TAG;
@@ -67,6 +86,11 @@ public class MobileDataPage extends SetupPage {
         return R.string.setup_mobile_data;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.mobile_data_settings;
+    }
+
     public static class MobileDataFragment extends SetupPageFragment {
 
         private View mEnableDataRow;
@@ -106,6 +130,8 @@ public class MobileDataPage extends SetupPage {
             public void onClick(View view) {
                 boolean checked = !mEnableMobileData.isChecked();
                 SetupWizardUtils.setMobileDataEnabled(getActivity(), checked);
+                // No broadcast may follow without service, read it again on resume
+                DeviceStateSnapshot.getInstance(getActivity()).onDataConnectionChanged();
                 mEnableMobileData.setChecked(checked);
             }
         };
@@ -192,7 +218,8 @@ public class MobileDataPage extends SetupPage {
         }
 
         private void updateDataConnectionStatus() {
-            mEnableMobileData.setChecked(SetupWizardUtils.isMobileDataEnabled(getActivity()));
+            mEnableMobileData.setChecked(DeviceStateSnapshot.getInstance(getActivity())
+                    .isMobileDataEnabled());
         }
 
         private boolean hasService() {
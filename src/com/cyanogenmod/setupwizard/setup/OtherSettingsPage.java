@@ -39,6 +39,7 @@ import android.widget.TextView;
 import org.namelessrom.setupwizard.SetupWizardApp;
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
 import com.cyanogenmod.setupwizard.ui.WebViewDialogFragment;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 
 import org.namelessrom.setupwizard.R;
@@ -48,15 +49,46 @@ import java.util.Observer;
 
 public class OtherSettingsPage extends SetupPage {
 
-    private static final String TAG = "OtherSettingsPage";
+    public static final String TAG = "OtherSettingsPage";
 
     private static final String PRIVACY_POLICY_URI =
             "https://www.google.com/intl/en/policies/privacy/?fg=1";
 
+    // Guarded by this, every take starts a new generation so late prefetches are dropped
+    private Options mPrefetchedOptions;
+    private int mOptionsGeneration;
+
     public OtherSettingsPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
     }
 
+    @Override
+    public void prefetch() {
+        final int generation;
+        synchronized (this) {
+            generation = mOptionsGeneration;
+        }
+        final Options options = new Options(mContext);
+        synchronized (this) {
+            if (generation == mOptionsGeneration) {
+                mPrefetchedOptions = options;
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched options once, later calls load them again.
+     */
+    private Options takeOptions() {
+        final Options options;
+        synchronized (this) {
+            options = mPrefetchedOptions;
+            mPrefetchedOptions = null;
+            mOptionsGeneration++;
+        }
+        return options != null ? options : new Options(mContext);
+    }
+
     @Override
     public Fragment getFragment(FragmentManager fragmentManager, int action) {
         Fragment fragment = fragmentManager.findFragmentByTag(getKey());
@@ -77,13 +109,36 @@ public class OtherSettingsPage extends SetupPage {
 
     @Override
     public int getTitleResId() {
-        if (SetupWizardUtils.hasGMS(mContext)) {
+        if (DeviceStateSnapshot.getInstance(mContext).hasGMS()) {
             return R.string.setup_other;
         } else {
             return R.string.setup_location;
         }
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.location_settings;
+    }
+
+    // What the page shows depends on a few binder calls
+    private static class Options {
+        final boolean hasGms;
+        final boolean hasTelephony;
+        final boolean backupVisible;
+        final IBackupManager backupManager;
+
+        Options(Context context) {
+            final DeviceStateSnapshot deviceState = DeviceStateSnapshot.getInstance(context);
+            hasGms = deviceState.hasGMS();
+            hasTelephony = deviceState.hasTelephony();
+            backupVisible = hasGms &&
+                    SetupWizardUtils.accountExists(context, SetupWizardApp.ACCOUNT_TYPE_GMS);
+            backupManager = IBackupManager.Stub.asInterface(
+                    ServiceManager.getService(Context.BACKUP_SERVICE));
+        }
+    }
+
     public static class OtherSettingsFragment extends SetupPageFragment {
 
         private View mBackupRow;
@@ -138,11 +193,12 @@ public class OtherSettingsPage extends SetupPage {
 
         @Override
         protected void initializePage() {
-            final boolean hasGms = SetupWizardUtils.hasGMS(getActivity());
-            final boolean hasTelephony = SetupWizardUtils.hasTelephony(getActivity());
+            final Options options =
+                    ((OtherSettingsPage) mCallbacks.getPage(mKey)).takeOptions();
+            final boolean hasGms = options.hasGms;
+            final boolean hasTelephony = options.hasTelephony;
             mContentResolver = getActivity().getContentResolver();
-            mBackupManager = IBackupManager.Stub.asInterface(
-                    ServiceManager.getService(Context.BACKUP_SERVICE));
+            mBackupManager = options.backupManager;
             TextView summaryView = (TextView) mRootView.findViewById(android.R.id.summary);
             if (hasGms) {
                 String privacy_policy = getString(R.string.services_privacy_policy);
@@ -167,9 +223,7 @@ public class OtherSettingsPage extends SetupPage {
             }
             mBackupRow = mRootView.findViewById(R.id.backup);
             mBackupRow.setOnClickListener(mBackupClickListener);
-            boolean backupVisible = hasGms &&
-                    SetupWizardUtils.accountExists(getActivity(), SetupWizardApp.ACCOUNT_TYPE_GMS);
-            mBackupRow.setVisibility(backupVisible ? View.VISIBLE : View.GONE);
+            mBackupRow.setVisibility(options.backupVisible ? View.VISIBLE : View.GONE);
             mBackup = (CheckBox) mRootView.findViewById(R.id.backup_checkbox);
             mLocationRow = mRootView.findViewById(R.id.location);
             mLocationRow.setOnClickListener(mLocationClickListener);
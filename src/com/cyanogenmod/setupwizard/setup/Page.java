@@ -34,15 +34,21 @@ public interface Page {
     public int getPrevButtonTitleResId();
     public int getNextButtonTitleResId();
     public Fragment getFragment(FragmentManager fragmentManager, int action);
+    /**
+     * @return The layout of the page's fragment, without creating the fragment, or 0.
+     */
+    public int getLayoutResource();
     public Bundle getData();
     public void resetData(Bundle data);
     public boolean isRequired();
     public Page setRequired(boolean required);
     public boolean isHidden();
     public Page setHidden(boolean hidden);
+    public VisibilityRule getVisibilityRule();
     public boolean doPreviousAction();
     public boolean doNextAction();
     public void doLoadAction(FragmentManager fragmentManager, int action);
+    public void prefetch();
     public void onFinishSetup();
     public boolean onActivityResult(int requestCode, int resultCode, Intent data);
     public SetupDataCallbacks getCallbacks();
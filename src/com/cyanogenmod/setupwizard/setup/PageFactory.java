@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+/**
+ * Describes a page without building it.
+ * <p/>
+ * The key and visibility rule are known upfront, the page itself is only
+ * created by {@link #getPage()} once navigation needs it. Until then the hidden
+ * state is kept here.
+ */
+public abstract class PageFactory {
+
+    private final SetupDataCallbacks mCallbacks;
+    private final String mKey;
+    private final VisibilityRule mVisibilityRule;
+
+    private boolean mHidden;
+    private Page mPage;
+
+    protected PageFactory(SetupDataCallbacks callbacks, String key,
+            VisibilityRule visibilityRule) {
+        mCallbacks = callbacks;
+        mKey = key;
+        mVisibilityRule = visibilityRule;
+    }
+
+    /**
+     * Wraps a page which is already built.
+     */
+    public static PageFactory of(final Page page) {
+        PageFactory factory = new PageFactory(page.getCallbacks(), page.getKey(),
+                page.getVisibilityRule()) {
+            @Override
+            protected Page onCreatePage() {
+                return page;
+            }
+        };
+        factory.mPage = page;
+        return factory;
+    }
+
+    protected abstract Page onCreatePage();
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public VisibilityRule getVisibilityRule() {
+        return mVisibilityRule;
+    }
+
+    public boolean isCreated() {
+        return mPage != null;
+    }
+
+    public Page getPage() {
+        if (mPage == null) {
+            mPage = onCreatePage();
+            if (mPage.isHidden() != mHidden) {
+                mPage.setHidden(mHidden);
+            }
+        }
+        return mPage;
+    }
+
+    public boolean isHidden() {
+        return mPage != null ? mPage.isHidden() : mHidden;
+    }
+
+    public void setHidden(boolean hidden) {
+        if (mPage != null) {
+            mPage.setHidden(hidden);
+        } else if (mHidden != hidden) {
+            mHidden = hidden;
+            mCallbacks.onPageTreeChanged();
+        }
+    }
+}
@@ -16,29 +16,131 @@
 
 package com.cyanogenmod.setupwizard.setup;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
-public class PageList extends LinkedHashMap<String, Page> {
+public class PageList {
 
-    public PageList(Page... pages) {
-        for (Page page : pages) {
-            put(page.getKey(), page);
+    private final PageFactory[] mPages;
+    private final HashMap<String, Integer> mIndices;
+
+    // For every position, the closest visible page after / before it, or -1
+    private final int[] mNextVisible;
+    private final int[] mPreviousVisible;
+    private boolean mVisibilityDirty = true;
+
+    public PageList(PageFactory... pages) {
+        mPages = pages;
+        mIndices = new HashMap<>(pages.length * 2);
+        for (int i = 0; i < pages.length; i++) {
+            mIndices.put(pages[i].getKey(), i);
         }
+        mNextVisible = new int[pages.length];
+        mPreviousVisible = new int[pages.length];
     }
 
+    /**
+     * Returns the page for the key, building it if needed.
+     */
     public Page getPage(String key) {
-        return get(key);
+        Integer index = mIndices.get(key);
+        return index != null ? mPages[index].getPage() : null;
     }
 
+    /**
+     * Returns the page at the index, building it if needed.
+     */
     public Page getPage(int index) {
-        int i=0;
-        for (Page page : values()) {
-            if (i == index) {
-                return page;
+        if (index < 0 || index >= mPages.length) {
+            return null;
+        }
+        return mPages[index].getPage();
+    }
+
+    public PageFactory getFactory(int index) {
+        if (index < 0 || index >= mPages.length) {
+            return null;
+        }
+        return mPages[index];
+    }
+
+    public int indexOf(String key) {
+        Integer index = mIndices.get(key);
+        return index != null ? index : -1;
+    }
+
+    public int size() {
+        return mPages.length;
+    }
+
+    /**
+     * Returns every page, building the ones which were not needed yet.
+     */
+    public List<Page> values() {
+        ArrayList<Page> pages = new ArrayList<>(mPages.length);
+        for (PageFactory page : mPages) {
+            pages.add(page.getPage());
+        }
+        return pages;
+    }
+
+    /**
+     * Returns only the pages which were built so far.
+     */
+    public List<Page> getCreatedPages() {
+        ArrayList<Page> pages = new ArrayList<>(mPages.length);
+        for (PageFactory page : mPages) {
+            if (page.isCreated()) {
+                pages.add(page.getPage());
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Marks the visible-page skip table stale, it is rebuilt on the next lookup.
+     */
+    public void invalidateVisibility() {
+        mVisibilityDirty = true;
+    }
+
+    public int getNextVisibleIndex(int index) {
+        if (index < 0 || index >= mPages.length) {
+            return -1;
+        }
+        ensureVisibility();
+        return mNextVisible[index];
+    }
+
+    public int getPreviousVisibleIndex(int index) {
+        if (index < 0 || index >= mPages.length) {
+            return -1;
+        }
+        ensureVisibility();
+        return mPreviousVisible[index];
+    }
+
+    private void ensureVisibility() {
+        if (!mVisibilityDirty) {
+            return;
+        }
+        final int count = mPages.length;
+        int next = -1;
+        for (int i = count - 1; i >= 0; i--) {
+            mNextVisible[i] = next;
+            if (!mPages[i].isHidden()) {
+                next = i;
+            }
+        }
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            mPreviousVisible[i] = previous;
+            if (!mPages[i].isHidden()) {
+                previous = i;
             }
-            i++;
         }
-        return null;
+        mVisibilityDirty = false;
     }
 
 }
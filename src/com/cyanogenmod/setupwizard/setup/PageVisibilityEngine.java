@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+import android.content.Context;
+
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Keeps page visibility in sync with device signals.
+ * <p/>
+ * Pages declare a {@link VisibilityRule}, which is indexed by the signals it reads.
+ * Rules work on {@link PageFactory} entries, so pages not built yet are covered too.
+ * A signal change only re-evaluates the pages depending on it. Rules are first
+ * applied with the first signal change, so registering pages stays cheap.
+ */
+public class PageVisibilityEngine {
+
+    public static final int SIGNAL_SIM_INSERTED = 1;
+    public static final int SIGNAL_ALL_SIMS_INSERTED = 1 << 1;
+    public static final int SIGNAL_NETWORK_CONNECTED = 1 << 2;
+    public static final int SIGNAL_DATA_ENABLED = 1 << 3;
+    public static final int SIGNAL_TIME_SET = 1 << 4;
+    public static final int SIGNAL_TIMEZONE_SET = 1 << 5;
+
+    private static final int SIGNAL_COUNT = 6;
+
+    public static final int ALL_SIGNALS = (1 << SIGNAL_COUNT) - 1;
+
+    private final DeviceStateSnapshot mDeviceState;
+
+    private final ArrayList<PageFactory> mPages = new ArrayList<>();
+    // Indexes into mPages of the pages depending on each signal, by bit position
+    private final BitSet[] mDependents = new BitSet[SIGNAL_COUNT];
+    private final BitSet mPending = new BitSet();
+
+    private boolean mTimeSet;
+    private boolean mTimeZoneSet;
+
+    public PageVisibilityEngine(Context context) {
+        mDeviceState = DeviceStateSnapshot.getInstance(context);
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            mDependents[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Indexes the page's rule, if it has one. It is applied with the next
+     * {@link #onSignalsChanged(int)}.
+     */
+    public void register(PageFactory page) {
+        VisibilityRule rule = page.getVisibilityRule();
+        if (rule == null) {
+            return;
+        }
+        final int index = mPages.size();
+        mPages.add(page);
+        int signals = rule.getSignals();
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            if ((signals & (1 << i)) != 0) {
+                mDependents[i].set(index);
+            }
+        }
+        mPending.set(index);
+    }
+
+    /**
+     * Re-evaluates every page depending on any of the given signals, once each,
+     * along with pages registered since the last call.
+     */
+    public void onSignalsChanged(int signals) {
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            if ((signals & (1 << i)) != 0) {
+                mPending.or(mDependents[i]);
+            }
+        }
+        for (int i = mPending.nextSetBit(0); i >= 0; i = mPending.nextSetBit(i + 1)) {
+            PageFactory page = mPages.get(i);
+            page.setHidden(page.getVisibilityRule().isHidden(this));
+        }
+        mPending.clear();
+    }
+
+    public void setTimeSet(boolean timeSet) {
+        mTimeSet = timeSet;
+    }
+
+    public void setTimeZoneSet(boolean timeZoneSet) {
+        mTimeZoneSet = timeZoneSet;
+    }
+
+    public boolean isSimInserted() {
+        return mDeviceState.isSimInserted();
+    }
+
+    public boolean allSimsInserted() {
+        return mDeviceState.allSimsInserted();
+    }
+
+    public boolean isNetworkConnected() {
+        return mDeviceState.isNetworkConnected();
+    }
+
+    public boolean isMobileDataEnabled() {
+        return mDeviceState.isMobileDataEnabled();
+    }
+
+    public boolean isTimeSet() {
+        return mTimeSet;
+    }
+
+    public boolean isTimeZoneSet() {
+        return mTimeZoneSet;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of setup progress, so setup resumes where it was after the
+ * process died or the device rebooted.
+ * <p/>
+ * Navigation and page data are appended as checksummed records. Records queued
+ * together are written and synced to disk once. After {@link #COMPACT_THRESHOLD}
+ * records the file is rewritten as a single {@link SetupState} snapshot. Replay
+ * stops at the first torn or corrupt record.
+ */
+public class SetupJournal {
+    private static final String TAG = SetupJournal.class.getSimpleName();
+
+    private static final String FILE_NAME = "setup_journal";
+
+    private static final int HEADER = 0x534a0001; // "SJ", version 1
+
+    private static final byte RECORD_SNAPSHOT = 1;
+    private static final byte RECORD_NAVIGATE = 2;
+    private static final byte RECORD_PAGE_DATA = 3;
+
+    private static final int COMPACT_THRESHOLD = 64;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private final AtomicFile mFile;
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private final ArrayList<byte[]> mQueue = new ArrayList<>();
+    private byte[] mPendingSnapshot;
+    private boolean mWriteScheduled;
+    private boolean mDeleted;
+
+    // Records since the last snapshot, UI thread only
+    private int mRecordCount;
+
+    // Writer thread only
+    private FileOutputStream mOut;
+
+    private final Runnable mWriter = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    public SetupJournal(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Reads back the progress journaled so far. May run on any thread, records
+     * made meanwhile are written after it and replaced by the next compaction.
+     *
+     * @return The progress, or null if there is none.
+     */
+    public SetupState replay() {
+        String currentKey = null;
+        boolean[] hidden = new boolean[0];
+        HashMap<String, Bundle> data = new HashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != HEADER) {
+                return null;
+            }
+            while (true) {
+                final byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    Log.w(TAG, "Corrupt record, replay stops here");
+                    break;
+                }
+                final DataInputStream record =
+                        new DataInputStream(new ByteArrayInputStream(payload));
+                if (type == RECORD_SNAPSHOT) {
+                    SetupState state = SetupState.fromByteArray(payload);
+                    if (state == null) {
+                        break;
+                    }
+                    currentKey = state.currentKey;
+                    hidden = state.hidden;
+                    data = state.data;
+                } else if (type == RECORD_NAVIGATE) {
+                    currentKey = record.readUTF();
+                } else if (type == RECORD_PAGE_DATA) {
+                    String key = record.readUTF();
+                    data.put(key, SetupState.readBundle(record));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            // A torn last record, keep what was read up to it
+            Log.w(TAG, "Journal ends early", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        if (currentKey == null && data.isEmpty()) {
+            return null;
+        }
+        return new SetupState(currentKey, hidden, data);
+    }
+
+    public void recordNavigation(String key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try {
+            new DataOutputStream(bytes).writeUTF(key);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(RECORD_NAVIGATE, bytes.toByteArray());
+    }
+
+    public void recordPageData(String key, Bundle data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(key);
+            SetupState.writeBundle(out, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(RECORD_PAGE_DATA, bytes.toByteArray());
+    }
+
+    public boolean needsCompaction() {
+        return mRecordCount >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Replaces the journal with a snapshot of the given state.
+     */
+    public void compact(SetupState state) {
+        byte[] snapshot = encode(RECORD_SNAPSHOT, state.toByteArray());
+        mRecordCount = 1;
+        synchronized (mLock) {
+            if (mDeleted) {
+                return;
+            }
+            // Records queued so far are covered by the snapshot
+            mQueue.clear();
+            mPendingSnapshot = snapshot;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Removes the journal for good, setup is done.
+     */
+    public void delete() {
+        synchronized (mLock) {
+            mDeleted = true;
+            mQueue.clear();
+            mPendingSnapshot = null;
+        }
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                mFile.delete();
+            }
+        });
+    }
+
+    private void append(byte type, byte[] payload) {
+        byte[] record = encode(type, payload);
+        mRecordCount++;
+        synchronized (mLock) {
+            if (mDeleted) {
+                return;
+            }
+            mQueue.add(record);
+            scheduleWrite();
+        }
+    }
+
+    private void scheduleWrite() {
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            AsyncTask.SERIAL_EXECUTOR.execute(mWriter);
+        }
+    }
+
+    private void writePending() {
+        final byte[] snapshot;
+        final ArrayList<byte[]> records;
+        synchronized (mLock) {
+            mWriteScheduled = false;
+            if (mDeleted) {
+                return;
+            }
+            snapshot = mPendingSnapshot;
+            mPendingSnapshot = null;
+            records = new ArrayList<>(mQueue);
+            mQueue.clear();
+        }
+        try {
+            if (snapshot != null) {
+                closeOutput();
+                FileOutputStream out = mFile.startWrite();
+                try {
+                    new DataOutputStream(out).writeInt(HEADER);
+                    out.write(snapshot);
+                    mFile.finishWrite(out);
+                } catch (IOException e) {
+                    mFile.failWrite(out);
+                    throw e;
+                }
+            }
+            if (records.isEmpty()) {
+                return;
+            }
+            if (mOut == null) {
+                File file = mFile.getBaseFile();
+                boolean empty = file.length() == 0;
+                mOut = new FileOutputStream(file, true);
+                if (empty) {
+                    new DataOutputStream(mOut).writeInt(HEADER);
+                }
+            }
+            for (int i = 0; i < records.size(); i++) {
+                mOut.write(records.get(i));
+            }
+            // One sync for the whole batch
+            mOut.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write journal", e);
+            closeOutput();
+        }
+    }
+
+    private void closeOutput() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mOut = null;
+        }
+    }
+
+    private static byte[] encode(byte type, byte[] payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeInt(payload.length);
+            out.writeInt(checksum(payload));
+            out.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -18,6 +18,7 @@ package com.cyanogenmod.setupwizard.setup;
 
 import android.app.Fragment;
 import android.app.FragmentManager;
+import android.app.FragmentTransaction;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
@@ -47,6 +48,11 @@ public abstract class SetupPage implements Page {
         return null;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return 0;
+    }
+
     @Override
     public int getPrevButtonTitleResId() {
         return -1;
@@ -70,24 +76,34 @@ public abstract class SetupPage implements Page {
     @Override
     public void onFinishSetup() {}
 
+    /**
+     * Called on a worker thread while the previous page is shown, do any
+     * non UI work the page's fragment needs here.
+     */
+    @Override
+    public void prefetch() {}
+
     @Override
     public void doLoadAction(FragmentManager fragmentManager, int action) {
+        // Both lookups below must see the transactions of earlier page changes
+        fragmentManager.executePendingTransactions();
         Fragment fragment = getFragment(fragmentManager, action);
-        if (action == Page.ACTION_NEXT) {
-            Transition t = new Slide(Gravity.RIGHT);
-            t.setDuration(200);
-            fragment.setEnterTransition(t);
-            fragmentManager.beginTransaction()
-                    .replace(R.id.content,fragment, getKey())
-                    .commit();
-        } else {
-            Transition t = new Slide(Gravity.LEFT);
-            t.setDuration(200);
-            fragment.setEnterTransition(t);
-            fragmentManager.beginTransaction()
-                    .replace(R.id.content, fragment, getKey())
-                    .commit();
+        Transition t = new Slide(action == Page.ACTION_NEXT ? Gravity.RIGHT : Gravity.LEFT);
+        t.setDuration(200);
+        fragment.setEnterTransition(t);
+        // Detach rather than replace, so the page view cache can reattach
+        // the views of pages we come back to
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        Fragment current = fragmentManager.findFragmentById(R.id.content);
+        if (current != null && current != fragment && !current.isDetached()) {
+            transaction.detach(current);
+        }
+        if (fragment.isDetached()) {
+            transaction.attach(fragment);
+        } else if (!fragment.isAdded()) {
+            transaction.add(R.id.content, fragment, getKey());
         }
+        transaction.commit();
     }
 
     @Override
@@ -113,10 +129,18 @@ public abstract class SetupPage implements Page {
 
     @Override
     public Page setHidden(boolean hidden) {
-        mHidden = hidden;
+        if (mHidden != hidden) {
+            mHidden = hidden;
+            mCallbacks.onPageTreeChanged();
+        }
         return this;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return null;
+    }
+
     @Override
     public Bundle getData() {
         return mData;
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Setup progress in a compact, versioned binary form.
+ * <p/>
+ * Holds the current page key, the hidden state of every page and the data of the
+ * pages built so far. Page data may hold booleans, ints, longs and strings, other
+ * values are not kept.
+ */
+public class SetupState {
+    private static final String TAG = SetupState.class.getSimpleName();
+
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_STRING = 4;
+
+    public final String currentKey;
+    public final boolean[] hidden;
+    public final HashMap<String, Bundle> data;
+
+    public SetupState(String currentKey, boolean[] hidden, HashMap<String, Bundle> data) {
+        this.currentKey = currentKey;
+        this.hidden = hidden;
+        this.data = data;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeUTF(currentKey);
+            out.writeShort(hidden.length);
+            // Hidden pages as a bitset
+            for (int i = 0; i < hidden.length; i += 8) {
+                int bits = 0;
+                for (int j = 0; j < 8 && i + j < hidden.length; j++) {
+                    if (hidden[i + j]) {
+                        bits |= 1 << j;
+                    }
+                }
+                out.writeByte(bits);
+            }
+            out.writeShort(data.size());
+            for (Map.Entry<String, Bundle> entry : data.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBundle(out, entry.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The state, or null if the bytes are not a state this version can read.
+     */
+    public static SetupState fromByteArray(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            String currentKey = in.readUTF();
+            boolean[] hidden = new boolean[in.readShort()];
+            for (int i = 0; i < hidden.length; i += 8) {
+                int bits = in.readByte();
+                for (int j = 0; j < 8 && i + j < hidden.length; j++) {
+                    hidden[i + j] = (bits & (1 << j)) != 0;
+                }
+            }
+            int pageCount = in.readShort();
+            HashMap<String, Bundle> data = new HashMap<>(pageCount * 2);
+            for (int i = 0; i < pageCount; i++) {
+                String key = in.readUTF();
+                data.put(key, readBundle(in));
+            }
+            return new SetupState(currentKey, hidden, data);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read setup state", e);
+            return null;
+        }
+    }
+
+    static void writeBundle(DataOutputStream out, Bundle bundle) throws IOException {
+        int count = 0;
+        for (String key : bundle.keySet()) {
+            if (getType(bundle.get(key)) != 0) {
+                count++;
+            }
+        }
+        out.writeShort(count);
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            byte type = getType(value);
+            if (type == 0) {
+                Log.w(TAG, "Not saving " + key + ", unsupported type");
+                continue;
+            }
+            out.writeUTF(key);
+            out.writeByte(type);
+            switch (type) {
+                case TYPE_BOOLEAN:
+                    out.writeBoolean((Boolean) value);
+                    break;
+                case TYPE_INT:
+                    out.writeInt((Integer) value);
+                    break;
+                case TYPE_LONG:
+                    out.writeLong((Long) value);
+                    break;
+                case TYPE_STRING:
+                    out.writeUTF((String) value);
+                    break;
+            }
+        }
+    }
+
+    static Bundle readBundle(DataInputStream in) throws IOException {
+        int count = in.readShort();
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_BOOLEAN:
+                    bundle.putBoolean(key, in.readBoolean());
+                    break;
+                case TYPE_INT:
+                    bundle.putInt(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    bundle.putLong(key, in.readLong());
+                    break;
+                case TYPE_STRING:
+                    bundle.putString(key, in.readUTF());
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * @return Whether both bundles hold the same keys and values.
+     */
+    static boolean sameData(Bundle a, Bundle b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!b.containsKey(key)) {
+                return false;
+            }
+            Object value = a.get(key);
+            if (value == null ? b.get(key) != null : !value.equals(b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte getType(Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        }
+        return 0;
+    }
+}
@@ -30,6 +30,18 @@ public class SimCardMissingPage extends SetupPage {
 
     public static final String TAG = "SimCardMissingPage";
 
+    static final VisibilityRule VISIBILITY_RULE = new VisibilityRule() {
+        @Override
+        public int getSignals() {
+            return PageVisibilityEngine.SIGNAL_SIM_INSERTED;
+        }
+
+        @Override
+        public boolean isHidden(PageVisibilityEngine signals) {
+            return signals.isSimInserted();
+        }
+    };
+
     private static final int SIM_DEFAULT = 0;
     private static final int SIM_SIDE = 1;
     private static final int SIM_BACK = 2;
@@ -51,6 +63,11 @@ public class SimCardMissingPage extends SetupPage {
         return fragment;
     }
 
+    @Override
+    public VisibilityRule getVisibilityRule() {
+        return VISIBILITY_RULE;
+    }
+
     @Override
     public String getKey() {
         return TAG;
@@ -61,6 +78,11 @@ public class SimCardMissingPage extends SetupPage {
         return R.string.setup_sim_missing;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.sim_missing_page;
+    }
+
     @Override
     public int getNextButtonTitleResId() {
         return R.string.skip;
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import org.namelessrom.setupwizard.R;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Timezones from res/xml/timezones.xml, held as parallel arrays in document order.
+ * The compiled xml resource is only walked once per process.
+ */
+public final class TimeZoneCatalog {
+
+    private static final String TAG = TimeZoneCatalog.class.getSimpleName();
+
+    private static final String XMLTAG_TIMEZONE = "timezone";
+
+    private static final int HOURS_1 = 60 * 60000;
+
+    private static TimeZoneCatalog sInstance;
+
+    private final String[] mIds;
+    private final String[] mDisplayNames;
+    private final String[] mGmtLabels;
+    private final int[] mOffsets;
+
+    private TimeZoneCatalog(String[] ids, String[] displayNames, long date) {
+        final int count = ids.length;
+        mIds = ids;
+        mDisplayNames = displayNames;
+        mGmtLabels = new String[count];
+        mOffsets = new int[count];
+        final StringBuilder builder = new StringBuilder(9);
+        for (int i = 0; i < count; i++) {
+            final int offset = TimeZone.getTimeZone(ids[i]).getOffset(date);
+            mOffsets[i] = offset;
+            builder.setLength(0);
+            mGmtLabels[i] = formatGmtOffset(builder, offset);
+        }
+    }
+
+    public static synchronized TimeZoneCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = load(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    public String getId(int index) {
+        return mIds[index];
+    }
+
+    public String getDisplayName(int index) {
+        return mDisplayNames[index];
+    }
+
+    public String getGmtLabel(int index) {
+        return mGmtLabels[index];
+    }
+
+    public int getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    private static TimeZoneCatalog load(Context context) {
+        final ArrayList<String> ids = new ArrayList<String>();
+        final ArrayList<String> displayNames = new ArrayList<String>();
+        XmlResourceParser xrp = null;
+        try {
+            xrp = context.getResources().getXml(R.xml.timezones);
+            int type;
+            while ((type = xrp.next()) != XmlResourceParser.END_DOCUMENT) {
+                if (type == XmlResourceParser.START_TAG
+                        && XMLTAG_TIMEZONE.equals(xrp.getName())) {
+                    ids.add(xrp.getAttributeValue(0));
+                    displayNames.add(xrp.nextText());
+                }
+            }
+        } catch (XmlPullParserException xppe) {
+            Log.e(TAG, "Ill-formatted timezones.xml file");
+        } catch (IOException ioe) {
+            Log.e(TAG, "Unable to read timezones.xml file");
+        } finally {
+            if (xrp != null) {
+                xrp.close();
+            }
+        }
+        // Keep ids and names paired even if parsing stopped half way
+        final int count = Math.min(ids.size(), displayNames.size());
+        return new TimeZoneCatalog(ids.subList(0, count).toArray(new String[count]),
+                displayNames.subList(0, count).toArray(new String[count]),
+                Calendar.getInstance().getTimeInMillis());
+    }
+
+    private static String formatGmtOffset(StringBuilder name, int offset) {
+        final int p = Math.abs(offset);
+        name.append("GMT");
+
+        if (offset < 0) {
+            name.append('-');
+        } else {
+            name.append('+');
+        }
+
+        name.append(p / (HOURS_1));
+        name.append(':');
+
+        int min = p / 60000;
+        min %= 60;
+
+        if (min < 10) {
+            name.append('0');
+        }
+        name.append(min);
+        return name.toString();
+    }
+}
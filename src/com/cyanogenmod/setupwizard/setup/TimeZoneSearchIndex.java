@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Prefix index over the display names and ids of a {@link TimeZoneCatalog}.
+ * <p/>
+ * Every word of a display name or id is stored as a sorted key, so the keys sharing
+ * a prefix form one contiguous range. A query that extends the previous one is only
+ * searched inside the previous range.
+ */
+public final class TimeZoneSearchIndex {
+
+    private final String[] mKeys;
+    private final int[] mZones;
+
+    private String mLastQuery;
+    private int mLastStart;
+    private int mLastEnd;
+
+    public TimeZoneSearchIndex(TimeZoneCatalog catalog) {
+        final ArrayList<Key> keys = new ArrayList<Key>();
+        final int count = catalog.size();
+        for (int i = 0; i < count; i++) {
+            addKeys(keys, catalog.getDisplayName(i), i);
+            addKeys(keys, catalog.getId(i).replace('_', ' '), i);
+        }
+        Collections.sort(keys, Key.COMPARATOR);
+        final int keyCount = keys.size();
+        mKeys = new String[keyCount];
+        mZones = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            mKeys[i] = keys.get(i).key;
+            mZones[i] = keys.get(i).zone;
+        }
+    }
+
+    /**
+     * Marks the catalog index of every matching zone in {@code matches}, which must be
+     * as long as the catalog.
+     *
+     * @return the number of matching zones
+     */
+    public int search(CharSequence query, boolean[] matches) {
+        final String prefix = normalize(query.toString());
+        int start = 0;
+        int end = mKeys.length;
+        if (mLastQuery != null && prefix.startsWith(mLastQuery)) {
+            start = mLastStart;
+            end = mLastEnd;
+        }
+        start = lowerBound(prefix, start, end);
+        end = upperBound(prefix, start, end);
+        mLastQuery = prefix;
+        mLastStart = start;
+        mLastEnd = end;
+
+        Arrays.fill(matches, false);
+        int found = 0;
+        for (int i = start; i < end; i++) {
+            if (!matches[mZones[i]]) {
+                matches[mZones[i]] = true;
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private int lowerBound(String prefix, int start, int end) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(String prefix, int start, int end) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mKeys[mid].startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void addKeys(ArrayList<Key> keys, String text, int zone) {
+        final String normalized = normalize(text);
+        final int length = normalized.length();
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || isSeparator(normalized.charAt(i - 1))) {
+                if (!isSeparator(normalized.charAt(i))) {
+                    keys.add(new Key(normalized.substring(i), zone));
+                }
+            }
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '/' || c == '-' || c == '(' || c == ',';
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Key {
+        static final Comparator<Key> COMPARATOR = new Comparator<Key>() {
+            @Override
+            public int compare(Key key1, Key key2) {
+                return key1.key.compareTo(key2.key);
+            }
+        };
+
+        final String key;
+        final int zone;
+
+        Key(String key, int zone) {
+            this.key = key;
+            this.zone = zone;
+        }
+    }
+}
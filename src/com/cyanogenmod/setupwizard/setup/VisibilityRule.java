@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.setup;
+
+/**
+ * Decides whether a page is hidden from the signals it depends on.
+ */
+public interface VisibilityRule {
+
+    /**
+     * @return The {@link PageVisibilityEngine} SIGNAL_* bits this rule reads.
+     */
+    public int getSignals();
+
+    public boolean isHidden(PageVisibilityEngine signals);
+}
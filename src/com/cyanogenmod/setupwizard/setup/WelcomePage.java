@@ -16,6 +16,7 @@
 
 package com.cyanogenmod.setupwizard.setup;
 
+import android.app.Activity;
 import android.app.ActivityOptions;
 import android.app.Fragment;
 import android.app.FragmentManager;
@@ -23,16 +24,19 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.util.Log;
 import android.view.View;
-import android.widget.ArrayAdapter;
 import android.widget.NumberPicker;
 
 import com.cyanogenmod.setupwizard.ui.LocalePicker;
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
+import com.cyanogenmod.setupwizard.util.LocaleListSnapshot;
 
 import org.namelessrom.setupwizard.R;
+import org.namelessrom.setupwizard.SetupWizardApp;
 
 import java.util.Locale;
 
@@ -64,6 +68,11 @@ public class WelcomePage extends SetupPage {
         return R.string.setup_welcome;
     }
 
+    @Override
+    public int getLayoutResource() {
+        return R.layout.setup_welcome_page;
+    }
+
     @Override
     public boolean doPreviousAction() {
         Intent intent = new Intent(ACTION_EMERGENCY_DIAL);
@@ -89,20 +98,26 @@ public class WelcomePage extends SetupPage {
 
     public static class WelcomeFragment extends SetupPageFragment {
 
-        private ArrayAdapter<com.android.internal.app.LocalePicker.LocaleInfo> mLocaleAdapter;
+        // Gives an adjusting wheel time to settle before the locale is applied
+        private static final int COMMIT_LOCALE_DELAY_MS = 150;
+
+        private LocaleListSnapshot mLocales;
         private Locale mInitialLocale;
         private Locale mCurrentLocale;
-        private int[] mAdapterIndices;
+        private Locale mPendingLocale;
 
         private LocalePicker mLanguagePicker;
+        private int mScrollState = LocalePicker.OnScrollListener.SCROLL_STATE_IDLE;
+
+        // Value changes seen vs. configuration updates actually applied
+        private int mLocaleChangeCount;
+        private int mLocaleCommitCount;
 
         private final Handler mHandler = new Handler();
 
-        private final Runnable mUpdateLocale = new Runnable() {
+        private final Runnable mCommitLocale = new Runnable() {
             public void run() {
-                if (mCurrentLocale != null) {
-                    com.android.internal.app.LocalePicker.updateLocale(mCurrentLocale);
-                }
+                commitLocale();
             }
         };
 
@@ -118,21 +133,37 @@ public class WelcomePage extends SetupPage {
         }
 
         private void loadLanguages() {
-            mLocaleAdapter = com.android.internal.app.LocalePicker.constructAdapter(getActivity(), R.layout.locale_picker_item, R.id.locale);
+            final LocaleListSnapshot locales = LocaleListSnapshot.peek();
+            if (locales != null) {
+                showLanguages(locales);
+                return;
+            }
+            // The list may have to be read from disk or built, keep that off the UI thread
+            mLanguagePicker.setVisibility(View.INVISIBLE);
+            final Context context = getActivity().getApplicationContext();
+            new AsyncTask<Void, Void, LocaleListSnapshot>() {
+                @Override
+                protected LocaleListSnapshot doInBackground(Void... params) {
+                    return LocaleListSnapshot.getInstance(context,
+                            R.layout.locale_picker_item, R.id.locale);
+                }
+
+                @Override
+                protected void onPostExecute(LocaleListSnapshot locales) {
+                    // Even when detached, the page view cache may bring the view back
+                    showLanguages(locales);
+                    mLanguagePicker.setVisibility(View.VISIBLE);
+                }
+            }.execute();
+        }
+
+        private void showLanguages(LocaleListSnapshot locales) {
+            mLocales = locales;
             mInitialLocale = Locale.getDefault();
             mCurrentLocale = mInitialLocale;
-            mAdapterIndices = new int[mLocaleAdapter.getCount()];
-            int currentLocaleIndex = 0;
-            String [] labels = new String[mLocaleAdapter.getCount()];
-            for (int i=0; i<mAdapterIndices.length; i++) {
-                com.android.internal.app.LocalePicker.LocaleInfo localLocaleInfo = mLocaleAdapter.getItem(i);
-                Locale localLocale = localLocaleInfo.getLocale();
-                if (localLocale.equals(mCurrentLocale)) {
-                    currentLocaleIndex = i;
-                }
-                mAdapterIndices[i] = i;
-                labels[i] = localLocaleInfo.getLabel();
-            }
+            final int currentLocaleIndex = Math.max(mLocales.indexOf(mCurrentLocale), 0);
+            final String[] labels = mLocales.getLabels();
+            mLanguagePicker.setSelectorRenderCacheEnabled(true);
             mLanguagePicker.setDisplayedValues(labels);
             mLanguagePicker.setMaxValue(labels.length - 1);
             mLanguagePicker.setValue(currentLocaleIndex);
@@ -142,24 +173,68 @@ public class WelcomePage extends SetupPage {
                     setLocaleFromPicker();
                 }
             });
+            mLanguagePicker.setOnScrollListener(new LocalePicker.OnScrollListener() {
+                public void onScrollStateChange(LocalePicker view, int scrollState) {
+                    mScrollState = scrollState;
+                    if (scrollState == LocalePicker.OnScrollListener.SCROLL_STATE_IDLE) {
+                        scheduleCommitLocale();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDestroyView() {
+            super.onDestroyView();
+            // Apply whatever was picked last instead of dropping it
+            if (mPendingLocale != null) {
+                mHandler.removeCallbacks(mCommitLocale);
+                commitLocale();
+            }
         }
 
         private void setLocaleFromPicker() {
-            int i = mAdapterIndices[mLanguagePicker.getValue()];
-            final com.android.internal.app.LocalePicker.LocaleInfo localLocaleInfo = mLocaleAdapter.getItem(i);
-            onLocaleChanged(localLocaleInfo.getLocale());
+            mLocaleChangeCount++;
+            mPendingLocale = mLocales.getLocale(mLanguagePicker.getValue());
+            // While scrolling or flinging, wait for the wheel to come to rest
+            if (mScrollState == LocalePicker.OnScrollListener.SCROLL_STATE_IDLE) {
+                scheduleCommitLocale();
+            }
         }
 
-        private void onLocaleChanged(Locale paramLocale) {
-            Resources localResources = getActivity().getResources();
-            Configuration localConfiguration1 = localResources.getConfiguration();
-            Configuration localConfiguration2 = new Configuration();
-            localConfiguration2.locale = paramLocale;
-            localResources.updateConfiguration(localConfiguration2, null);
-            localResources.updateConfiguration(localConfiguration1, null);
-            mHandler.removeCallbacks(mUpdateLocale);
-            mCurrentLocale = paramLocale;
-            mHandler.postDelayed(mUpdateLocale, 1000);
+        private void scheduleCommitLocale() {
+            mHandler.removeCallbacks(mCommitLocale);
+            mHandler.postDelayed(mCommitLocale, COMMIT_LOCALE_DELAY_MS);
+        }
+
+        private void commitLocale() {
+            final Locale locale = mPendingLocale;
+            mPendingLocale = null;
+            if (locale == null || locale.equals(mCurrentLocale)) {
+                return;
+            }
+            final Activity activity = getActivity();
+            if (activity != null) {
+                Resources localResources = activity.getResources();
+                Configuration localConfiguration1 = localResources.getConfiguration();
+                Configuration localConfiguration2 = new Configuration();
+                localConfiguration2.locale = locale;
+                localResources.updateConfiguration(localConfiguration2, null);
+                localResources.updateConfiguration(localConfiguration1, null);
+            }
+            mCurrentLocale = locale;
+            mLocaleCommitCount++;
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, String.format("commitLocale: %s, %d of %d changes skipped", locale,
+                        mLocaleChangeCount - mLocaleCommitCount, mLocaleChangeCount));
+            }
+            // The system wide update is a binder call into the activity manager,
+            // keep it off the UI thread but in order.
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    com.android.internal.app.LocalePicker.updateLocale(locale);
+                }
+            });
         }
 
         @Override
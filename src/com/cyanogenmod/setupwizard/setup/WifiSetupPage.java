@@ -24,35 +24,27 @@ import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.os.Handler;
-import android.provider.Settings;
 import android.util.Log;
 
 import org.namelessrom.setupwizard.SetupWizardApp;
 import com.cyanogenmod.setupwizard.ui.LoadingFragment;
 import com.cyanogenmod.setupwizard.ui.SetupPageFragment;
+import com.cyanogenmod.setupwizard.util.CaptivePortalMonitor;
+import com.cyanogenmod.setupwizard.util.CaptivePortalProbe;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 
 import org.namelessrom.setupwizard.R;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-
 public class WifiSetupPage extends SetupPage {
 
     public static final String TAG = "WifiSetupPage";
 
-    private static final String DEFAULT_SERVER = "clients3.google.com";
-    private static final int CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS = 10000;
-
     private static final String CAPTIVE_PORTAL_LOGIN_ACTION
             = "android.net.action.captive_portal_login";
 
     private LoadingFragment mLoadingFragment;
 
-    private URL mCaptivePortalUrl;
-
     private boolean mIsCaptivePortal = false;
 
     private final Handler mHandler = new Handler();
@@ -96,13 +88,6 @@ public class WifiSetupPage extends SetupPage {
 
     public WifiSetupPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
-        String server = Settings.Global.getString(context.getContentResolver(), "captive_portal_server");
-        if (server == null) server = DEFAULT_SERVER;
-        try {
-            mCaptivePortalUrl = new URL("http://" + server + "/generate_204");
-        } catch (MalformedURLException e) {
-            Log.e(TAG, "Not a valid url" + e);
-        }
     }
 
     @Override
@@ -151,6 +136,7 @@ public class WifiSetupPage extends SetupPage {
                 getCallbacks().onNextPage();
             }
         } else if (requestCode == SetupWizardApp.REQUEST_CODE_SETUP_CAPTIVE_PORTAL) {
+            CaptivePortalMonitor.getInstance(mContext).invalidate();
             if (resultCode == Activity.RESULT_CANCELED) {
                 launchWifiSetup();
             } else {
@@ -163,48 +149,20 @@ public class WifiSetupPage extends SetupPage {
     }
 
     private void checkForCaptivePortal() {
-        new Thread() {
+        // Usually answered from the probe started when Wi-Fi connected
+        CaptivePortalMonitor.getInstance(mContext).check(new CaptivePortalProbe.Callback() {
             @Override
-            public void run() {
-                mIsCaptivePortal = isCaptivePortal();
+            public void onProbeFinished(boolean isCaptivePortal) {
+                mIsCaptivePortal = isCaptivePortal;
                 mHandler.post(mFinishCaptivePortalCheckRunnable);
             }
-        }.start();
-    }
-
-    // Don't run on UI thread
-    private boolean isCaptivePortal() {
-        if (mCaptivePortalUrl == null) return false;
-        HttpURLConnection urlConnection = null;
-        try {
-            urlConnection = (HttpURLConnection) mCaptivePortalUrl.openConnection();
-            urlConnection.setInstanceFollowRedirects(false);
-            urlConnection.setConnectTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-            urlConnection.setReadTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-            urlConnection.setUseCaches(false);
-            urlConnection.getInputStream();
-            // We got a valid response, but not from the real google
-            final int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 408 || responseCode == 504) {
-                // If we timeout here, we'll try and go through captive portal login
-                return true;
-            }
-            return urlConnection.getResponseCode() != 204;
-        } catch (IOException e) {
-            Log.e(TAG, "Captive portal check - probably not a portal: exception "
-                    + e);
-            return false;
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-        }
+        });
     }
 
     private void launchWifiSetup() {
         SetupWizardUtils.tryEnablingWifi(mContext);
         Intent intent = new Intent(SetupWizardApp.ACTION_SETUP_WIFI);
-        if (SetupWizardUtils.hasLeanback(mContext)) {
+        if (DeviceStateSnapshot.getInstance(mContext).hasLeanback()) {
             intent.setComponent(SetupWizardUtils.mTvwifisettingsActivity);
         }
         intent.putExtra(SetupWizardApp.EXTRA_FIRST_RUN, true);
@@ -19,6 +19,8 @@ package com.cyanogenmod.setupwizard.ui;
 import android.content.Intent;
 import android.os.Bundle;
 
+import com.cyanogenmod.setupwizard.util.SetupTimings;
+
 import org.namelessrom.setupwizard.R;
 
 public class LoadingFragment extends SetupPageFragment {
@@ -28,6 +30,7 @@ public class LoadingFragment extends SetupPageFragment {
     @Override
     public void startActivityForResult(Intent intent, int requestCode, Bundle options) {
         if (isResumed()) {
+            SetupTimings.getInstance().start(SetupTimings.PHASE_EXTERNAL, mKey);
             super.startActivityForResult(intent, requestCode, options);
         } else {
             mStartActivityForResultRunnable =
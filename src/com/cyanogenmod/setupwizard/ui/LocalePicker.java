@@ -22,6 +22,7 @@ import android.annotation.Widget;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -35,7 +36,6 @@ import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.method.NumberKeyListener;
 import android.util.AttributeSet;
-import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -58,6 +58,7 @@ import android.widget.Scroller;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -300,9 +301,36 @@ public class LocalePicker extends LinearLayout {
     private long mLongPressUpdateInterval = DEFAULT_LONG_PRESS_UPDATE_INTERVAL;
 
     /**
-     * Cache for the string representation of selector indices.
+     * Ring buffer caching the string representation of selector indices,
+     * sized so that scrolling never needs to allocate.
      */
-    private final SparseArray<String> mSelectorIndexToStringCache = new SparseArray<String>();
+    private final int[] mCachedSelectorIndices;
+    private final String[] mCachedSelectorValues;
+    private int mNextCachedSelectorSlot;
+
+    /**
+     * Lower case copies of {@link #mDisplayedValues} for matching typed input.
+     */
+    private String[] mDisplayedValuesLowerCase;
+
+    /**
+     * Pre-rendered text of the selector indices currently on the wheel, one
+     * reusable bitmap per wheel position.
+     */
+    private final int[] mRenderedSelectorIndices;
+    private final Bitmap[] mRenderedSelectorValues;
+    private final Canvas mRenderCanvas = new Canvas();
+    private int mRenderedValueWidth;
+
+    /**
+     * Flag whether the selector wheel draws from {@link #mRenderedSelectorValues}.
+     */
+    private boolean mSelectorRenderCacheEnabled;
+
+    /**
+     * Font metrics of {@link #mSelectorWheelPaint}.
+     */
+    private final Paint.FontMetricsInt mSelectorFontMetrics = new Paint.FontMetricsInt();
 
     /**
      * The selector indices whose value are show by the selector.
@@ -573,6 +601,11 @@ public class LocalePicker extends LinearLayout {
         SELECTOR_WHEEL_ITEM_COUNT = context.getResources().getInteger(org.namelessrom.setupwizard.R.integer.local_picker_items);
         SELECTOR_MIDDLE_ITEM_INDEX = context.getResources().getInteger(org.namelessrom.setupwizard.R.integer.local_picker_items)/2;
         mSelectorIndices= new int[SELECTOR_WHEEL_ITEM_COUNT];
+        mCachedSelectorIndices = new int[SELECTOR_WHEEL_ITEM_COUNT * 2];
+        mCachedSelectorValues = new String[SELECTOR_WHEEL_ITEM_COUNT * 2];
+        mRenderedSelectorIndices = new int[SELECTOR_WHEEL_ITEM_COUNT];
+        mRenderedSelectorValues = new Bitmap[SELECTOR_WHEEL_ITEM_COUNT];
+        clearSelectorValueCache();
         // process style attributes
         TypedArray attributesArray = context.obtainStyledAttributes(
                 attrs, R.styleable.NumberPicker, defStyle, 0);
@@ -712,6 +745,7 @@ public class LocalePicker extends LinearLayout {
         ColorStateList colors = mInputText.getTextColors();
         int color = colors.getColorForState(ENABLED_STATE_SET, Color.WHITE);
         paint.setColor(color);
+        paint.getFontMetricsInt(mSelectorFontMetrics);
         mSelectorWheelPaint = paint;
 
         // create the fling and adjust scrollers
@@ -1142,6 +1176,8 @@ public class LocalePicker extends LinearLayout {
             return;
         }
         mFormatter = formatter;
+        clearSelectorValueCache();
+        clearSelectorRenderCache();
         initializeSelectorWheelIndices();
         updateInputTextView();
     }
@@ -1339,6 +1375,8 @@ public class LocalePicker extends LinearLayout {
         }
         boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorIndices.length;
         setWrapSelectorWheel(wrapSelectorWheel);
+        clearSelectorValueCache();
+        clearSelectorRenderCache();
         initializeSelectorWheelIndices();
         updateInputTextView();
         tryComputeMaxWidth();
@@ -1377,6 +1415,8 @@ public class LocalePicker extends LinearLayout {
         }
         boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorIndices.length;
         setWrapSelectorWheel(wrapSelectorWheel);
+        clearSelectorValueCache();
+        clearSelectorRenderCache();
         initializeSelectorWheelIndices();
         updateInputTextView();
         tryComputeMaxWidth();
@@ -1406,7 +1446,12 @@ public class LocalePicker extends LinearLayout {
             return;
         }
         mDisplayedValues = displayedValues;
+        mDisplayedValuesLowerCase = null;
         if (mDisplayedValues != null) {
+            mDisplayedValuesLowerCase = new String[mDisplayedValues.length];
+            for (int i = 0; i < mDisplayedValues.length; i++) {
+                mDisplayedValuesLowerCase[i] = mDisplayedValues[i].toLowerCase();
+            }
             // Allow text entry rather than strictly numeric entry.
             mInputText.setRawInputType(InputType.TYPE_CLASS_TEXT
                     | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
@@ -1414,10 +1459,28 @@ public class LocalePicker extends LinearLayout {
             mInputText.setRawInputType(InputType.TYPE_CLASS_NUMBER);
         }
         updateInputTextView();
+        clearSelectorValueCache();
+        clearSelectorRenderCache();
         initializeSelectorWheelIndices();
         tryComputeMaxWidth();
     }
 
+    /**
+     * Sets whether the selector wheel keeps the measured and rendered text of
+     * its visible entries instead of laying out the text again on every frame.
+     * Worth enabling for long lists of complex scripts.
+     *
+     * @param enabled Whether to cache the rendered entries.
+     */
+    public void setSelectorRenderCacheEnabled(boolean enabled) {
+        if (mSelectorRenderCacheEnabled == enabled) {
+            return;
+        }
+        mSelectorRenderCacheEnabled = enabled;
+        clearSelectorRenderCache();
+        invalidate();
+    }
+
     @Override
     protected float getTopFadingEdgeStrength() {
         return TOP_AND_BOTTOM_FADING_EDGE_STRENGTH;
@@ -1431,6 +1494,7 @@ public class LocalePicker extends LinearLayout {
     @Override
     protected void onDetachedFromWindow() {
         removeAllCallbacks();
+        clearSelectorRenderCache();
     }
 
     @Override
@@ -1462,14 +1526,21 @@ public class LocalePicker extends LinearLayout {
         int[] selectorIndices = mSelectorIndices;
         for (int i = 0; i < selectorIndices.length; i++) {
             int selectorIndex = selectorIndices[i];
-            String scrollSelectorValue = mSelectorIndexToStringCache.get(selectorIndex);
+            String scrollSelectorValue = ensureCachedScrollSelectorValue(selectorIndex);
             // Do not draw the middle item if input is visible since the input
             // is shown only if the wheel is static and it covers the middle
             // item. Otherwise, if the user starts editing the text via the
             // IME he may see a dimmed version of the old value intermixed
             // with the new one.
             if (i != SELECTOR_MIDDLE_ITEM_INDEX || mInputText.getVisibility() != VISIBLE) {
-                canvas.drawText(scrollSelectorValue, x, y, mSelectorWheelPaint);
+                Bitmap rendered = mSelectorRenderCacheEnabled
+                        ? getRenderedSelectorValue(selectorIndex, scrollSelectorValue) : null;
+                if (rendered != null) {
+                    canvas.drawBitmap(rendered, x - rendered.getWidth() / 2f,
+                            y + mSelectorFontMetrics.ascent, null);
+                } else {
+                    canvas.drawText(scrollSelectorValue, x, y, mSelectorWheelPaint);
+                }
             }
             y += mSelectorElementHeight;
         }
@@ -1560,7 +1631,6 @@ public class LocalePicker extends LinearLayout {
      * these indices.
      */
     private void initializeSelectorWheelIndices() {
-        mSelectorIndexToStringCache.clear();
         int[] selectorIndices = mSelectorIndices;
         int current = getValue();
         for (int i = 0; i < mSelectorIndices.length; i++) {
@@ -1571,6 +1641,111 @@ public class LocalePicker extends LinearLayout {
             selectorIndices[i] = selectorIndex;
             ensureCachedScrollSelectorValue(selectorIndices[i]);
         }
+        pruneSelectorRenderCache();
+    }
+
+    /**
+     * @return The text of the given <code>selectorIndex</code> rendered into a
+     *         bitmap, or null if there is nothing to render.
+     */
+    private Bitmap getRenderedSelectorValue(int selectorIndex, String value) {
+        if (mDisplayedValues == null || TextUtils.isEmpty(value)) {
+            return null;
+        }
+        final int[] renderedIndices = mRenderedSelectorIndices;
+        int freeSlot = -1;
+        for (int i = 0; i < renderedIndices.length; i++) {
+            if (renderedIndices[i] == selectorIndex) {
+                return mRenderedSelectorValues[i];
+            } else if (renderedIndices[i] == Integer.MIN_VALUE && freeSlot == -1) {
+                freeSlot = i;
+            }
+        }
+        if (freeSlot == -1) {
+            return null;
+        }
+        final Paint.FontMetricsInt fontMetrics = mSelectorFontMetrics;
+        if (mRenderedValueWidth == 0) {
+            // every slot is as wide as the widest value, so bitmaps can be reused
+            float maxWidth = 0;
+            for (String displayedValue : mDisplayedValues) {
+                maxWidth = Math.max(maxWidth, mSelectorWheelPaint.measureText(displayedValue));
+            }
+            // leave some room for glyphs overhanging their advance
+            mRenderedValueWidth = (int) Math.ceil(maxWidth) + 2 * fontMetrics.descent;
+        }
+        final int height = fontMetrics.descent - fontMetrics.ascent;
+        if (mRenderedValueWidth <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap rendered = mRenderedSelectorValues[freeSlot];
+        if (rendered == null) {
+            rendered = Bitmap.createBitmap(mRenderedValueWidth, height, Bitmap.Config.ARGB_8888);
+            mRenderedSelectorValues[freeSlot] = rendered;
+        } else {
+            rendered.eraseColor(Color.TRANSPARENT);
+        }
+        mRenderCanvas.setBitmap(rendered);
+        mRenderCanvas.drawText(value, mRenderedValueWidth / 2f, -fontMetrics.ascent,
+                mSelectorWheelPaint);
+        mRenderCanvas.setBitmap(null);
+        renderedIndices[freeSlot] = selectorIndex;
+        return rendered;
+    }
+
+    /**
+     * Frees the slots of the indices which left the selector wheel.
+     */
+    private void pruneSelectorRenderCache() {
+        final int[] renderedIndices = mRenderedSelectorIndices;
+        for (int i = 0; i < renderedIndices.length; i++) {
+            if (renderedIndices[i] != Integer.MIN_VALUE
+                    && !isSelectorIndexShown(renderedIndices[i])) {
+                renderedIndices[i] = Integer.MIN_VALUE;
+            }
+        }
+    }
+
+    private void clearSelectorRenderCache() {
+        Arrays.fill(mRenderedSelectorIndices, Integer.MIN_VALUE);
+        final Bitmap[] renderedValues = mRenderedSelectorValues;
+        for (int i = 0; i < renderedValues.length; i++) {
+            if (renderedValues[i] != null) {
+                renderedValues[i].recycle();
+                renderedValues[i] = null;
+            }
+        }
+        mRenderedValueWidth = 0;
+    }
+
+    /**
+     * @return The cached string representation of <code>selectorIndex</code>,
+     *         or null if there is none.
+     */
+    private String getCachedSelectorValue(int selectorIndex) {
+        final int[] cachedIndices = mCachedSelectorIndices;
+        for (int i = 0; i < cachedIndices.length; i++) {
+            if (cachedIndices[i] == selectorIndex) {
+                return mCachedSelectorValues[i];
+            }
+        }
+        return null;
+    }
+
+    private void clearSelectorValueCache() {
+        Arrays.fill(mCachedSelectorIndices, Integer.MIN_VALUE);
+        Arrays.fill(mCachedSelectorValues, null);
+        mNextCachedSelectorSlot = 0;
+    }
+
+    private boolean isSelectorIndexShown(int selectorIndex) {
+        final int[] selectorIndices = mSelectorIndices;
+        for (int i = 0; i < selectorIndices.length; i++) {
+            if (selectorIndices[i] == selectorIndex) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -1592,7 +1767,10 @@ public class LocalePicker extends LinearLayout {
         }
         int previous = mValue;
         mValue = current;
-        updateInputTextView();
+        // The input is hidden while the wheel moves, it catches up once idle
+        if (mScrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+            updateInputTextView();
+        }
         if (notifyChange) {
             notifyChange(previous, current);
         }
@@ -1675,6 +1853,9 @@ public class LocalePicker extends LinearLayout {
             return;
         }
         mScrollState = scrollState;
+        if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+            updateInputTextView();
+        }
         if (mOnScrollListener != null) {
             mOnScrollListener.onScrollStateChange(this, scrollState);
         }
@@ -1721,6 +1902,7 @@ public class LocalePicker extends LinearLayout {
         }
         selectorIndices[selectorIndices.length - 1] = nextScrollSelectorIndex;
         ensureCachedScrollSelectorValue(nextScrollSelectorIndex);
+        pruneSelectorRenderCache();
     }
 
     /**
@@ -1737,17 +1919,19 @@ public class LocalePicker extends LinearLayout {
         }
         selectorIndices[0] = nextScrollSelectorIndex;
         ensureCachedScrollSelectorValue(nextScrollSelectorIndex);
+        pruneSelectorRenderCache();
     }
 
     /**
      * Ensures we have a cached string representation of the given <code>
      * selectorIndex</code> to avoid multiple instantiations of the same string.
+     *
+     * @return The string representation of <code>selectorIndex</code>.
      */
-    private void ensureCachedScrollSelectorValue(int selectorIndex) {
-        SparseArray<String> cache = mSelectorIndexToStringCache;
-        String scrollSelectorValue = cache.get(selectorIndex);
+    private String ensureCachedScrollSelectorValue(int selectorIndex) {
+        String scrollSelectorValue = getCachedSelectorValue(selectorIndex);
         if (scrollSelectorValue != null) {
-            return;
+            return scrollSelectorValue;
         }
         if (selectorIndex < mMinValue || selectorIndex > mMaxValue) {
             scrollSelectorValue = "";
@@ -1759,7 +1943,12 @@ public class LocalePicker extends LinearLayout {
                 scrollSelectorValue = formatNumber(selectorIndex);
             }
         }
-        cache.put(selectorIndex, scrollSelectorValue);
+        // The ring holds twice the wheel, evicting the oldest entry
+        final int slot = mNextCachedSelectorSlot;
+        mCachedSelectorIndices[slot] = selectorIndex;
+        mCachedSelectorValues[slot] = scrollSelectorValue;
+        mNextCachedSelectorSlot = (slot + 1) % mCachedSelectorIndices.length;
+        return scrollSelectorValue;
     }
 
     private String formatNumber(int value) {
@@ -1794,7 +1983,7 @@ public class LocalePicker extends LinearLayout {
          */
         String text = (mDisplayedValues == null) ? formatNumber(mValue)
                 : mDisplayedValues[mValue - mMinValue];
-        if (!TextUtils.isEmpty(text) && !text.equals(mInputText.getText().toString())) {
+        if (!TextUtils.isEmpty(text) && !TextUtils.equals(text, mInputText.getText())) {
             mInputText.setText(text);
             return true;
         }
@@ -1885,10 +2074,10 @@ public class LocalePicker extends LinearLayout {
                 // Ignore as if it's not a number we don't care
             }
         } else {
-            for (int i = 0; i < mDisplayedValues.length; i++) {
-                // Don't force the user to type in jan when ja will do
-                value = value.toLowerCase();
-                if (mDisplayedValues[i].toLowerCase().startsWith(value)) {
+            // Don't force the user to type in jan when ja will do
+            value = value.toLowerCase();
+            for (int i = 0; i < mDisplayedValuesLowerCase.length; i++) {
+                if (mDisplayedValuesLowerCase[i].startsWith(value)) {
                     return mMinValue + i;
                 }
             }
@@ -1990,9 +2179,9 @@ public class LocalePicker extends LinearLayout {
                 String result = String.valueOf(dest.subSequence(0, dstart)) + filtered
                         + dest.subSequence(dend, dest.length());
                 String str = String.valueOf(result).toLowerCase();
-                for (String val : mDisplayedValues) {
-                    String valLowerCase = val.toLowerCase();
-                    if (valLowerCase.startsWith(str)) {
+                for (int i = 0; i < mDisplayedValues.length; i++) {
+                    String val = mDisplayedValues[i];
+                    if (mDisplayedValuesLowerCase[i].startsWith(str)) {
                         postSetSelectionCommand(result.length(), val.length());
                         return val.subSequence(dstart, val.length());
                     }
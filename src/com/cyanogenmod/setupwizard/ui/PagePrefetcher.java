@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.ui;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.cyanogenmod.setupwizard.setup.Page;
+
+import org.namelessrom.setupwizard.SetupWizardApp;
+
+/**
+ * Gets the next page ready while the current one is shown.
+ * <p/>
+ * The page's own {@link Page#prefetch()} runs in the background, and its layout is
+ * inflated off screen once the UI thread is idle. The fragment picks the view up
+ * with {@link #takeView(String, int)} instead of inflating it after the tap.
+ * <p/>
+ * Every prefetch gets a new generation, results of an older one are dropped.
+ */
+public class PagePrefetcher {
+    private static final String TAG = PagePrefetcher.class.getSimpleName();
+
+    private final Activity mActivity;
+    private final ViewGroup mContainer;
+
+    private String mKey;
+    private int mLayoutResId;
+    private View mView;
+    private String mPrefetchedDataKey;
+    private int mGeneration;
+    private PrefetchTask mPrefetchTask;
+
+    private int mViewHits;
+    private int mViewMisses;
+    private int mDataHits;
+    private int mDataMisses;
+
+    private final MessageQueue.IdleHandler mInflateView = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mKey != null && mView == null && !mActivity.isFinishing()) {
+                mView = mActivity.getLayoutInflater().inflate(mLayoutResId, mContainer, false);
+            }
+            return false;
+        }
+    };
+
+    public PagePrefetcher(Activity activity, ViewGroup container) {
+        mActivity = activity;
+        mContainer = container;
+    }
+
+    /**
+     * Starts getting the page ready, replacing what was prefetched for another page.
+     */
+    public void prefetch(final Page page) {
+        if (page == null || page.getKey().equals(mKey)) {
+            return;
+        }
+        cancel();
+        final String key = page.getKey();
+        final int layoutResId = page.getLayoutResource();
+        // Added or detached fragments already have, or may reuse, their views
+        Fragment fragment = mActivity.getFragmentManager().findFragmentByTag(key);
+        if (layoutResId == 0 || (fragment != null
+                && (fragment.isAdded() || fragment.isDetached()))) {
+            return;
+        }
+        mKey = key;
+        mLayoutResId = layoutResId;
+        mPrefetchTask = new PrefetchTask(page, mGeneration);
+        mPrefetchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        Looper.myQueue().addIdleHandler(mInflateView);
+    }
+
+    /**
+     * Hands out the view prefetched for the page, if there is one for this layout.
+     *
+     * @return The view, or null when the fragment has to inflate it itself.
+     */
+    public View takeView(String key, int layoutResId) {
+        View view = null;
+        if (key.equals(mKey) && layoutResId == mLayoutResId && mView != null) {
+            view = mView;
+            mViewHits++;
+        } else {
+            mViewMisses++;
+        }
+        if (key.equals(mPrefetchedDataKey)) {
+            mDataHits++;
+        } else {
+            mDataMisses++;
+        }
+        if (key.equals(mKey)) {
+            cancel();
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, String.format("%s: %s, views %d hits / %d misses, data %d hits / %d misses",
+                    key, view != null ? "hit" : "miss",
+                    mViewHits, mViewMisses, mDataHits, mDataMisses));
+        }
+        return view;
+    }
+
+    public void cancel() {
+        Looper.myQueue().removeIdleHandler(mInflateView);
+        mGeneration++;
+        if (mPrefetchTask != null) {
+            mPrefetchTask.cancel(true);
+            mPrefetchTask = null;
+        }
+        mKey = null;
+        mView = null;
+        mPrefetchedDataKey = null;
+    }
+
+    public int getViewHitCount() {
+        return mViewHits;
+    }
+
+    public int getViewMissCount() {
+        return mViewMisses;
+    }
+
+    public int getDataHitCount() {
+        return mDataHits;
+    }
+
+    public int getDataMissCount() {
+        return mDataMisses;
+    }
+
+    private class PrefetchTask extends AsyncTask<Void, Void, Void> {
+
+        private final Page mPage;
+        private final int mTaskGeneration;
+
+        PrefetchTask(Page page, int generation) {
+            mPage = page;
+            mTaskGeneration = generation;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            mPage.prefetch();
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (mTaskGeneration == mGeneration) {
+                mPrefetchedDataKey = mPage.getKey();
+                mPrefetchTask = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.ui;
+
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.namelessrom.setupwizard.SetupWizardApp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the views of recently left pages so going back and forth reattaches them
+ * instead of inflating and initializing the page again.
+ * <p/>
+ * Entries are keyed by page and only reused by the same fragment under the same
+ * configuration. At most {@link #MAX_ENTRIES} pages and {@link #MAX_VIEWS} views
+ * are kept, least recently left pages go first.
+ */
+public class PageViewCache {
+    private static final String TAG = PageViewCache.class.getSimpleName();
+
+    private static final int MAX_ENTRIES = 4;
+    private static final int MAX_VIEWS = 600;
+
+    private final Resources mResources;
+
+    // In access order, the eldest entry is evicted first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(8, 0.75f, true);
+    private int mViewCount;
+
+    // Last measured inflate and initialize time per page
+    private final HashMap<String, Long> mInflateTimes = new HashMap<>();
+    private int mInflateCount;
+    private int mReuseCount;
+    private long mTimeSavedNanos;
+
+    public PageViewCache(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * Keeps the view a fragment is leaving.
+     */
+    public void put(String key, SetupPageFragment fragment, View view) {
+        remove(key);
+        Entry entry = new Entry(fragment, view, new Configuration(mResources.getConfiguration()),
+                countViews(view));
+        mEntries.put(key, entry);
+        mViewCount += entry.viewCount;
+        trim(MAX_ENTRIES, MAX_VIEWS);
+    }
+
+    /**
+     * Claims the view cached for the page.
+     *
+     * @return Whether the view can be reattached as is, otherwise the fragment
+     * has to inflate and initialize it again.
+     */
+    public boolean take(String key, SetupPageFragment fragment, View view) {
+        Entry entry = remove(key);
+        if (entry == null || entry.fragment != fragment || entry.view != view
+                || !entry.configuration.equals(mResources.getConfiguration())) {
+            return false;
+        }
+        mReuseCount++;
+        Long inflateTime = mInflateTimes.get(key);
+        if (inflateTime != null) {
+            mTimeSavedNanos += inflateTime;
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, String.format("reused %s, %d reused / %d inflated, %d ms saved",
+                    key, mReuseCount, mInflateCount, mTimeSavedNanos / 1000000));
+        }
+        return true;
+    }
+
+    public boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Records a page view being inflated and initialized from scratch.
+     */
+    public void onInflated(String key, long durationNanos) {
+        mInflateCount++;
+        mInflateTimes.put(key, durationNanos);
+    }
+
+    public void trimMemory() {
+        trim(0, 0);
+    }
+
+    public int getInflateCount() {
+        return mInflateCount;
+    }
+
+    public int getReuseCount() {
+        return mReuseCount;
+    }
+
+    public long getTimeSavedNanos() {
+        return mTimeSavedNanos;
+    }
+
+    private Entry remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mViewCount -= entry.viewCount;
+        }
+        return entry;
+    }
+
+    private void trim(int maxEntries, int maxViews) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext() && (mEntries.size() > maxEntries || mViewCount > maxViews)) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mViewCount -= entry.viewCount;
+            evict(entry.fragment);
+        }
+    }
+
+    // Drops the detached fragment along with its views
+    private static void evict(Fragment fragment) {
+        FragmentManager fragmentManager = fragment.getFragmentManager();
+        if (fragmentManager != null && fragment.isDetached()) {
+            fragmentManager.beginTransaction()
+                    .remove(fragment)
+                    .commitAllowingStateLoss();
+        }
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    private static class Entry {
+        final SetupPageFragment fragment;
+        final View view;
+        final Configuration configuration;
+        final int viewCount;
+
+        Entry(SetupPageFragment fragment, View view, Configuration configuration,
+                int viewCount) {
+            this.fragment = fragment;
+            this.view = view;
+            this.configuration = configuration;
+            this.viewCount = viewCount;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.widget.TextView;
 
 import com.cyanogenmod.setupwizard.setup.Page;
 import com.cyanogenmod.setupwizard.setup.SetupDataCallbacks;
+import com.cyanogenmod.setupwizard.util.SetupTimings;
 
 import org.namelessrom.setupwizard.R;
 
@@ -48,13 +49,46 @@ public abstract class SetupPageFragment extends Fragment {
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
-        mRootView = inflater.inflate(getLayoutResource(), container, false);
+        final SetupWizardActivity activity = getActivity() instanceof SetupWizardActivity ?
+                (SetupWizardActivity) getActivity() : null;
+        if (activity != null && mRootView != null
+                && activity.getPageViewCache().take(mKey, this, mRootView)) {
+            // Still initialized from the last visit, just attach it again
+            ViewGroup parent = (ViewGroup) mRootView.getParent();
+            if (parent != null) {
+                parent.removeView(mRootView);
+            }
+            return mRootView;
+        }
+        final long start = System.nanoTime();
+        SetupTimings.getInstance().start(SetupTimings.PHASE_INIT, mKey);
+        mRootView = null;
+        if (activity != null) {
+            mRootView = activity.getPagePrefetcher().takeView(mKey, getLayoutResource());
+        }
+        if (mRootView == null) {
+            mRootView = inflater.inflate(getLayoutResource(), container, false);
+        }
         mTitleView = (TextView) mRootView.findViewById(android.R.id.title);
         mHeaderView = (ViewGroup )  mRootView.findViewById(R.id.header);
         initializePage();
+        SetupTimings.getInstance().end(SetupTimings.PHASE_INIT, mKey);
+        if (activity != null) {
+            activity.getPageViewCache().onInflated(mKey, System.nanoTime() - start);
+        }
         return mRootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        final Activity activity = getActivity();
+        if (activity instanceof SetupWizardActivity && mRootView != null
+                && !activity.isFinishing() && !activity.isChangingConfigurations()) {
+            ((SetupWizardActivity) activity).getPageViewCache().put(mKey, this, mRootView);
+        }
+    }
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -88,6 +122,7 @@ public abstract class SetupPageFragment extends Fragment {
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        SetupTimings.getInstance().end(SetupTimings.PHASE_EXTERNAL, mKey);
         // On low mem devices, this fragment might get destroyed by
         // fragment manager while we are in another activity.
         if (mPage == null) {
@@ -18,6 +18,9 @@ package com.cyanogenmod.setupwizard.ui;
 
 import android.animation.Animator;
 import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.app.FragmentTransaction;
 import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.Intent;
@@ -26,6 +29,7 @@ import android.content.res.Resources;
 import android.content.res.ThemeManager;
 import android.graphics.Bitmap;
 import android.graphics.Point;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.UserHandle;
@@ -34,6 +38,7 @@ import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewAnimationUtils;
+import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
@@ -42,11 +47,20 @@ import android.widget.ProgressBar;
 
 import org.namelessrom.setupwizard.SetupWizardApp;
 import com.cyanogenmod.setupwizard.setup.CMSetupWizardData;
+import com.cyanogenmod.setupwizard.setup.FinishTask;
+import com.cyanogenmod.setupwizard.setup.FinishTaskGraph;
 import com.cyanogenmod.setupwizard.setup.Page;
 import com.cyanogenmod.setupwizard.setup.SetupDataCallbacks;
+import com.cyanogenmod.setupwizard.util.DeviceStateSnapshot;
 import com.cyanogenmod.setupwizard.util.EnableAccessibilityController;
+import com.cyanogenmod.setupwizard.util.FinishSettingsWriter;
+import com.cyanogenmod.setupwizard.util.LocaleListSnapshot;
+import com.cyanogenmod.setupwizard.util.SetupTimings;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import org.namelessrom.setupwizard.R;
@@ -56,6 +70,18 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
 
     private static final String TAG = SetupWizardActivity.class.getSimpleName();
 
+    // Debug builds only, otherwise timings are in dumpsys
+    private static final String TIMINGS_FILE = "setup_timings.txt";
+
+    private static final String KEY_STATE = "state";
+
+    private static final String TASK_SETTINGS = "settings";
+    private static final String TASK_DISABLE_GMS = "disable_gms";
+    private static final String TASK_HOME = "home";
+    private static final String TASK_ACCESSIBILITY = "accessibility";
+    private static final String TASK_THEME_CLIENT = "theme_client";
+    private static final String TASK_WALLPAPER = "wallpaper";
+
     private static final int UI_FLAGS = View.SYSTEM_UI_FLAG_LAYOUT_STABLE
             | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
             | View.SYSTEM_UI_FLAG_IMMERSIVE
@@ -73,14 +99,29 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
 
     private CMSetupWizardData mSetupData;
 
+    private PagePrefetcher mPagePrefetcher;
+    private PageViewCache mPageViewCache;
+
+    private FinishSettingsWriter mSettingsWriter;
+
     private final Handler mHandler = new Handler();
 
     private volatile boolean mIsFinishing = false;
 
-    private final ArrayList<Runnable> mFinishRunnables = new ArrayList<Runnable>();
+    // finishSetup() was called while settings were still being written
+    private boolean mFinishPending = false;
+
+    private boolean mThemeProgress = false;
+
+    private final FinishTaskGraph mFinishTasks = new FinishTaskGraph();
+
+    // Tasks added by pages, these may queue settings writes
+    private final ArrayList<String> mPageTaskNames = new ArrayList<String>();
 
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Usually in memory by the time the welcome page shows the list
+        LocaleListSnapshot.preload(this, R.layout.locale_picker_item, R.id.locale);
         final View decorView = getWindow().getDecorView();
         decorView.setSystemUiVisibility(UI_FLAGS);
         decorView.setOnSystemUiVisibilityChangeListener(
@@ -99,6 +140,9 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         mReveal = (ImageView)mRootView.findViewById(R.id.reveal);
         mButtonBar = findViewById(R.id.button_bar);
         mFinishingProgressBar = (ProgressBar)findViewById(R.id.finishing_bar);
+        mPagePrefetcher = new PagePrefetcher(this, (ViewGroup) findViewById(R.id.content));
+        mPageViewCache = new PageViewCache(getResources());
+        mSettingsWriter = FinishSettingsWriter.getInstance(this);
         ((SetupWizardApp)getApplicationContext()).disableStatusBar();
         mSetupData = (CMSetupWizardData)getLastNonConfigurationInstance();
         if (mSetupData == null) {
@@ -111,6 +155,9 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
             mPrevButton.setVisibility(View.INVISIBLE);
         }
         mSetupData.registerListener(this);
+        if (savedInstanceState != null) {
+            removeUntrackedFragments();
+        }
         mNextButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -127,10 +174,11 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         });
         if (savedInstanceState == null) {
             Page page = mSetupData.getCurrentPage();
+            SetupTimings.getInstance().start(SetupTimings.PHASE_LOAD, page.getKey());
             page.doLoadAction(getFragmentManager(), Page.ACTION_NEXT);
         }
-        if (savedInstanceState != null && savedInstanceState.containsKey("data")) {
-            mSetupData.load(savedInstanceState.getBundle("data"));
+        if (savedInstanceState != null && savedInstanceState.containsKey(KEY_STATE)) {
+            mSetupData.load(savedInstanceState.getByteArray(KEY_STATE));
         }
         mEnableAccessibilityController =
                 EnableAccessibilityController.getInstance(getApplicationContext());
@@ -145,6 +193,29 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         registerReceiver(mSetupData, mSetupData.getIntentFilter());
     }
 
+    /**
+     * Removes the detached fragments of pages left before the activity was
+     * recreated. They come back with the fragment manager, but not with the
+     * page view cache, so nothing would ever remove them.
+     */
+    private void removeUntrackedFragments() {
+        final FragmentManager fragmentManager = getFragmentManager();
+        FragmentTransaction transaction = null;
+        for (int i = 0; i < mSetupData.getPageCount(); i++) {
+            final String key = mSetupData.getPageKey(i);
+            final Fragment fragment = fragmentManager.findFragmentByTag(key);
+            if (fragment != null && fragment.isDetached() && !mPageViewCache.contains(key)) {
+                if (transaction == null) {
+                    transaction = fragmentManager.beginTransaction();
+                }
+                transaction.remove(fragment);
+            }
+        }
+        if (transaction != null) {
+            transaction.commit();
+        }
+    }
+
     @Override
     protected void onResume() {
         final View decorView = getWindow().getDecorView();
@@ -173,11 +244,41 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        mPagePrefetcher.cancel();
         mSetupData.onDestroy();
         mSetupData.unregisterListener(this);
         unregisterReceiver(mSetupData);
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        SetupTimings.getInstance().dump(prefix, writer);
+        if (mPagePrefetcher != null) {
+            writer.print(prefix); writer.print("Prefetched views: ");
+            writer.print(mPagePrefetcher.getViewHitCount()); writer.print(" hits, ");
+            writer.print(mPagePrefetcher.getViewMissCount()); writer.println(" misses");
+            writer.print(prefix); writer.print("Prefetched data: ");
+            writer.print(mPagePrefetcher.getDataHitCount()); writer.print(" hits, ");
+            writer.print(mPagePrefetcher.getDataMissCount()); writer.println(" misses");
+        }
+        if (mPageViewCache != null) {
+            writer.print(prefix); writer.print("Page views: ");
+            writer.print(mPageViewCache.getInflateCount()); writer.print(" inflated, ");
+            writer.print(mPageViewCache.getReuseCount()); writer.print(" reused, ");
+            writer.print(mPageViewCache.getTimeSavedNanos() / 1000000);
+            writer.println(" ms saved");
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mPageViewCache.trimMemory();
+        }
+    }
+
     @Override
     public Object onRetainNonConfigurationInstance() {
         return mSetupData;
@@ -186,7 +287,7 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putBundle("data", mSetupData.save());
+        outState.putByteArray(KEY_STATE, mSetupData.save());
     }
 
     @Override
@@ -216,8 +317,20 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
 
     @Override
     public void onPageLoaded(Page page) {
+        SetupTimings.getInstance().end(SetupTimings.PHASE_LOAD, page.getKey());
         updateButtonBar();
         enableButtonBar(true);
+        if (!mSetupData.isFinished()) {
+            mPagePrefetcher.prefetch(mSetupData.getNextVisiblePage());
+        }
+    }
+
+    public PagePrefetcher getPagePrefetcher() {
+        return mPagePrefetcher;
+    }
+
+    public PageViewCache getPageViewCache() {
+        return mPageViewCache;
     }
 
     @Override
@@ -240,7 +353,7 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         }
         if (mSetupData.isFirstPage()) {
             mPrevButton.setCompoundDrawables(null, null, null, null);
-            mPrevButton.setVisibility(SetupWizardUtils.hasTelephony(this) ?
+            mPrevButton.setVisibility(DeviceStateSnapshot.getInstance(this).hasTelephony() ?
                     View.VISIBLE : View.INVISIBLE);
         } else {
             mPrevButton.setCompoundDrawablesWithIntrinsicBounds(
@@ -282,8 +395,9 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     }
 
     @Override
-    public void addFinishRunnable(Runnable runnable) {
-        mFinishRunnables.add(runnable);
+    public void addFinishRunnable(FinishTask task) {
+        mFinishTasks.add(task);
+        mPageTaskNames.add(task.getName());
     }
 
     @Override
@@ -296,7 +410,7 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         mPrevButton.setVisibility(View.INVISIBLE);
         final SetupWizardApp setupWizardApp = (SetupWizardApp)getApplication();
         setupWizardApp.enableStatusBar();
-        setupWizardApp.enableCaptivePortalDetection();
+        mSettingsWriter.putGlobalInt(Settings.Global.CAPTIVE_PORTAL_DETECTION_ENABLED, 1);
         Animation fadeIn = AnimationUtils.loadAnimation(this, android.R.anim.fade_in);
         mFinishingProgressBar.setVisibility(View.VISIBLE);
         mFinishingProgressBar.setIndeterminate(true);
@@ -304,6 +418,24 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         final ThemeManager tm = (ThemeManager) getSystemService(Context.THEME_SERVICE);
         tm.addClient(this);
         mSetupData.finishPages();
+        mSettingsWriter.apply(new FinishSettingsWriter.Callback() {
+            @Override
+            public void onProgress(int progress) {
+                // A theme being applied takes longer, its progress wins
+                if (!mThemeProgress && progress > 0) {
+                    mFinishingProgressBar.setIndeterminate(false);
+                    mFinishingProgressBar.setProgress(progress);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (mFinishPending) {
+                    mFinishPending = false;
+                    finishSetup();
+                }
+            }
+        });
     }
 
     @Override
@@ -321,6 +453,7 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     @Override
     public void onProgress(int progress) {
         if (progress > 0) {
+            mThemeProgress = true;
             mFinishingProgressBar.setIndeterminate(false);
             mFinishingProgressBar.setProgress(progress);
         }
@@ -328,6 +461,10 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
 
     @Override
     public void finishSetup() {
+        if (mSettingsWriter.isBusy()) {
+            mFinishPending = true;
+            return;
+        }
         if (!mIsFinishing) {
             final SetupWizardApp setupWizardApp = (SetupWizardApp)getApplication();
             setupWizardApp.sendStickyBroadcastAsUser(
@@ -405,31 +542,72 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     }
 
     private void finalizeSetup() {
-        mFinishRunnables.add(new Runnable() {
+        mSettingsWriter.putGlobalInt(Settings.Global.DEVICE_PROVISIONED, 1);
+        mSettingsWriter.putSecureInt(Settings.Secure.USER_SETUP_COMPLETE, 1);
+        mFinishTasks.add(new FinishTask(TASK_SETTINGS, FinishTask.THREAD_BACKGROUND,
+                mPageTaskNames.toArray(new String[mPageTaskNames.size()])) {
+            @Override
+            public void run() {
+                mSettingsWriter.applyNow();
+            }
+        });
+        mFinishTasks.add(new FinishTask(TASK_DISABLE_GMS, FinishTask.THREAD_BACKGROUND) {
+            @Override
+            public void run() {
+                SetupWizardUtils.disableGMSSetupWizard(SetupWizardActivity.this);
+            }
+        });
+        // Home needs the device provisioned and the GMS wizard out of the way
+        mFinishTasks.add(new FinishTask(TASK_HOME, FinishTask.THREAD_UI,
+                TASK_SETTINGS, TASK_DISABLE_GMS) {
+            @Override
+            public void run() {
+                Intent intent = new Intent(Intent.ACTION_MAIN);
+                intent.addCategory(Intent.CATEGORY_HOME);
+                startActivity(intent);
+            }
+        });
+        mFinishTasks.add(new FinishTask(TASK_ACCESSIBILITY, FinishTask.THREAD_UI) {
             @Override
             public void run() {
-                Settings.Global.putInt(getContentResolver(), Settings.Global.DEVICE_PROVISIONED, 1);
-                Settings.Secure.putInt(getContentResolver(),
-                        Settings.Secure.USER_SETUP_COMPLETE, 1);
                 if (mEnableAccessibilityController != null) {
                     mEnableAccessibilityController.onDestroy();
                 }
+            }
+        });
+        mFinishTasks.add(new FinishTask(TASK_THEME_CLIENT, FinishTask.THREAD_UI) {
+            @Override
+            public void run() {
                 final ThemeManager tm =
                         (ThemeManager) SetupWizardActivity.this.getSystemService(THEME_SERVICE);
                 tm.removeClient(SetupWizardActivity.this);
-                SetupWizardUtils.disableGMSSetupWizard(SetupWizardActivity.this);
-                Intent intent = new Intent(Intent.ACTION_MAIN);
-                intent.addCategory(Intent.CATEGORY_HOME);
-                startActivity(intent);
+            }
+        });
+        mFinishTasks.add(new FinishTask(TASK_WALLPAPER, FinishTask.THREAD_BACKGROUND) {
+            @Override
+            public void run() {
                 final WallpaperManager wallpaperManager =
                         WallpaperManager.getInstance(SetupWizardActivity.this);
                 wallpaperManager.forgetLoadedWallpaper();
             }
         });
-        for (Runnable runnable : mFinishRunnables) {
-            runnable.run();
-        }
-        finish();
-        SetupWizardUtils.disableSetupWizard(SetupWizardActivity.this);
+        mFinishTasks.start(new FinishTaskGraph.Listener() {
+            @Override
+            public void onFinishTasksDone() {
+                final SetupTimings timings = SetupTimings.getInstance();
+                timings.end(SetupTimings.PHASE_FINISH, SetupTimings.KEY_SETUP);
+                if (SetupWizardApp.DEBUG) {
+                    final File timingsFile = new File(getFilesDir(), TIMINGS_FILE);
+                    AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            timings.writeToFile(timingsFile);
+                        }
+                    });
+                }
+                finish();
+                SetupWizardUtils.disableSetupWizard(SetupWizardActivity.this);
+            }
+        });
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.namelessrom.setupwizard.R;
+import org.namelessrom.setupwizard.SetupWizardApp;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+/**
+ * Probes Wi-Fi networks for captive portals as soon as they connect.
+ * <p/>
+ * Results are kept per network for {@link #RESULT_TTL_MS}, so a check made when
+ * the Wi-Fi setup returns is usually answered right away.
+ */
+public class CaptivePortalMonitor {
+    private static final String TAG = CaptivePortalMonitor.class.getSimpleName();
+
+    private static final String DEFAULT_SERVER = "clients3.google.com";
+
+    private static final long RESULT_TTL_MS = 60 * 1000;
+
+    private static final int NO_NETWORK = -1;
+
+    private static CaptivePortalMonitor sInstance;
+
+    private final Context mContext;
+    private final CaptivePortalProbe mProbe;
+
+    // Guarded by this
+    private final SparseArray<Result> mResults = new SparseArray<>();
+    // Each Network has its own connection pool, kept while it stays connected
+    private Network mWifiNetwork;
+    private final SparseArray<ArrayList<CaptivePortalProbe.Callback>> mPending =
+            new SparseArray<>();
+
+    public static synchronized CaptivePortalMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CaptivePortalMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CaptivePortalMonitor(Context context) {
+        mContext = context;
+        String server = Settings.Global.getString(context.getContentResolver(),
+                "captive_portal_server");
+        if (server == null) server = DEFAULT_SERVER;
+        ArrayList<URL> endpoints = new ArrayList<>(2);
+        try {
+            endpoints.add(new URL("http://" + server + "/generate_204"));
+            endpoints.add(new URL("https://" + server + "/generate_204"));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Not a valid url" + e);
+        }
+        mProbe = new CaptivePortalProbe(endpoints,
+                context.getResources().getInteger(R.integer.captive_portal_deadline_ms));
+    }
+
+    /**
+     * Starts probing the Wi-Fi network unless its result is known or on the way.
+     */
+    public void onWifiConnected() {
+        if (getWifiNetwork() != null) {
+            check(null);
+        }
+    }
+
+    /**
+     * Forgets all results, e.g. after the user went through a portal login.
+     */
+    public synchronized void invalidate() {
+        mResults.clear();
+    }
+
+    /**
+     * Answers for the current Wi-Fi network, from the cache when possible.
+     *
+     * @param callback Called on a probe thread, or right away for cached results.
+     */
+    public void check(final CaptivePortalProbe.Callback callback) {
+        final Network network = getWifiNetwork();
+        final int netId = network != null ? network.netId : NO_NETWORK;
+        Result cached = null;
+        synchronized (this) {
+            if (netId != NO_NETWORK) {
+                Result result = mResults.get(netId);
+                if (result != null
+                        && SystemClock.elapsedRealtime() - result.time < RESULT_TTL_MS) {
+                    cached = result;
+                } else {
+                    ArrayList<CaptivePortalProbe.Callback> pending = mPending.get(netId);
+                    if (pending != null) {
+                        if (callback != null) {
+                            pending.add(callback);
+                        }
+                        return;
+                    }
+                    pending = new ArrayList<>(1);
+                    if (callback != null) {
+                        pending.add(callback);
+                    }
+                    mPending.put(netId, pending);
+                }
+            }
+        }
+        if (cached != null) {
+            if (SetupWizardApp.DEBUG) Log.d(TAG, "cached result for network " + netId);
+            if (callback != null) {
+                callback.onProbeFinished(cached.isCaptivePortal);
+            }
+            return;
+        }
+        if (SetupWizardApp.DEBUG) Log.d(TAG, "probing network " + netId);
+        mProbe.check(network, new CaptivePortalProbe.Callback() {
+            @Override
+            public void onProbeFinished(boolean isCaptivePortal) {
+                if (SetupWizardApp.DEBUG) {
+                    Log.d(TAG, "network " + netId + " portal=" + isCaptivePortal
+                            + ", attempt latencies " + mProbe.getLatencyHistogram());
+                }
+                if (netId == NO_NETWORK) {
+                    if (callback != null) {
+                        callback.onProbeFinished(isCaptivePortal);
+                    }
+                    return;
+                }
+                final ArrayList<CaptivePortalProbe.Callback> pending;
+                synchronized (CaptivePortalMonitor.this) {
+                    mResults.put(netId, new Result(isCaptivePortal,
+                            SystemClock.elapsedRealtime()));
+                    pending = mPending.get(netId);
+                    mPending.remove(netId);
+                }
+                for (int i = 0; i < pending.size(); i++) {
+                    pending.get(i).onProbeFinished(isCaptivePortal);
+                }
+            }
+        });
+    }
+
+    private synchronized Network getWifiNetwork() {
+        Network network = ConnectivityManager.from(mContext)
+                .getNetworkForType(ConnectivityManager.TYPE_WIFI);
+        if (network == null || !network.equals(mWifiNetwork)) {
+            mWifiNetwork = network;
+        }
+        return mWifiNetwork;
+    }
+
+    private static class Result {
+        final boolean isCaptivePortal;
+        final long time;
+
+        Result(boolean isCaptivePortal, long time) {
+            this.isCaptivePortal = isCaptivePortal;
+            this.time = time;
+        }
+    }
+}
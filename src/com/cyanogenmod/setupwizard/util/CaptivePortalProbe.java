@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.net.Network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks for a captive portal by probing several endpoints at once.
+ * <p/>
+ * Probes send HEAD requests and never read a body, so connections go back to the
+ * keep-alive pool and later checks skip the handshake. Probes on a given
+ * {@link Network} go through that network's own pool, a connection made on
+ * another network could reach the server without going through the portal.
+ * Probes without a network don't keep their connections. Inconclusive attempts
+ * are retried with exponential backoff while the deadline allows.
+ * <p/>
+ * The first conclusive answer wins and the remaining probes are cancelled. If
+ * none is conclusive before the deadline, a probe which timed out on the portal
+ * side (408 or 504) counts as a portal, anything else as no portal.
+ */
+public class CaptivePortalProbe {
+
+    public interface Callback {
+        /**
+         * Called on a probe thread.
+         */
+        public void onProbeFinished(boolean isCaptivePortal);
+    }
+
+    private static final int RESULT_NO_PORTAL = 0;
+    private static final int RESULT_PORTAL = 1;
+    private static final int RESULT_PORTAL_TIMEOUT = 2;
+    private static final int RESULT_FAILED = 3;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    // Enough for one HTTP and one HTTPS probe of two overlapping checks
+    private static final int MAX_PROBE_THREADS = 4;
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MIN_ATTEMPT_MS = 250;
+    private static final int MAX_DRAIN_BYTES = 4096;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CaptivePortalProbe #" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    // Idle threads are kept around for the next check
+    private static final ExecutorService sExecutor = newExecutor(MAX_PROBE_THREADS);
+
+    // Waits for the probes of check(), apart so it never takes a probe's thread
+    private static final ExecutorService sCheckExecutor = newExecutor(1);
+
+    private final List<URL> mEndpoints;
+    private final int mDeadlineMs;
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+
+    private volatile String mRequestMethod = "HEAD";
+
+    /**
+     * @param endpoints  http or https URLs answering 204 when there is no portal
+     * @param deadlineMs how long a check may take overall, retries included
+     */
+    public CaptivePortalProbe(List<URL> endpoints, int deadlineMs) {
+        mEndpoints = new ArrayList<>(endpoints);
+        mDeadlineMs = deadlineMs;
+    }
+
+    /**
+     * Probes with GET instead of HEAD, for servers not answering HEAD. The
+     * body is still not read.
+     */
+    public void setUseGet(boolean useGet) {
+        mRequestMethod = useGet ? "GET" : "HEAD";
+    }
+
+    /**
+     * @return The latency of every attempt made, retries included.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatencies;
+    }
+
+    /**
+     * @param network The network to probe, reuse the same instance to reuse its
+     *                connections. Null for the default network.
+     */
+    public void check(final Network network, final Callback callback) {
+        sCheckExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean isCaptivePortal = false;
+                try {
+                    isCaptivePortal = isCaptivePortal(network);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                callback.onProbeFinished(isCaptivePortal);
+            }
+        });
+    }
+
+    /**
+     * Blocks for at most the deadline, don't call on the UI thread.
+     */
+    public boolean isCaptivePortal(Network network) throws InterruptedException {
+        if (mEndpoints.isEmpty()) {
+            return false;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mDeadlineMs);
+        final ExecutorCompletionService<Integer> completionService =
+                new ExecutorCompletionService<>(sExecutor);
+        final ArrayList<Probe> probes = new ArrayList<>(mEndpoints.size());
+        final ArrayList<Future<Integer>> futures = new ArrayList<>(mEndpoints.size());
+        boolean portalTimedOut = false;
+        try {
+            for (URL endpoint : mEndpoints) {
+                Probe probe = new Probe(network, endpoint, deadline);
+                probes.add(probe);
+                futures.add(completionService.submit(probe));
+            }
+            for (int i = 0; i < probes.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Future<Integer> future = remaining > 0 ?
+                        completionService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (future == null) {
+                    break;
+                }
+                int result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    result = RESULT_FAILED;
+                }
+                if (result == RESULT_NO_PORTAL) {
+                    return false;
+                } else if (result == RESULT_PORTAL) {
+                    return true;
+                } else if (result == RESULT_PORTAL_TIMEOUT) {
+                    portalTimedOut = true;
+                }
+            }
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+            }
+            for (int i = 0; i < probes.size(); i++) {
+                probes.get(i).cancel();
+            }
+        }
+        return portalTimedOut;
+    }
+
+    private class Probe implements Callable<Integer> {
+
+        private final Network mNetwork;
+        private final URL mUrl;
+        private final long mDeadlineNanos;
+        private final boolean mHttps;
+
+        private volatile HttpURLConnection mConnection;
+        private volatile boolean mCancelled;
+
+        Probe(Network network, URL url, long deadlineNanos) {
+            mNetwork = network;
+            mUrl = url;
+            mDeadlineNanos = deadlineNanos;
+            mHttps = "https".equals(url.getProtocol());
+        }
+
+        @Override
+        public Integer call() {
+            long backoffMs = INITIAL_BACKOFF_MS;
+            int result = RESULT_FAILED;
+            while (!mCancelled) {
+                result = attempt();
+                if (result == RESULT_NO_PORTAL || result == RESULT_PORTAL) {
+                    return result;
+                }
+                // Inconclusive, retry if the budget allows another attempt
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(
+                        mDeadlineNanos - System.nanoTime());
+                if (remainingMs <= backoffMs + MIN_ATTEMPT_MS) {
+                    break;
+                }
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                backoffMs *= 2;
+            }
+            return result;
+        }
+
+        private int attempt() {
+            final long start = System.nanoTime();
+            final int timeoutMs = (int) Math.max(TimeUnit.NANOSECONDS.toMillis(
+                    mDeadlineNanos - start), MIN_ATTEMPT_MS);
+            HttpURLConnection connection = null;
+            boolean reusable = false;
+            try {
+                connection = (HttpURLConnection) (mNetwork != null ?
+                        mNetwork.openConnection(mUrl) : mUrl.openConnection());
+                mConnection = connection;
+                if (mCancelled) {
+                    return RESULT_FAILED;
+                }
+                if (mNetwork == null) {
+                    // The process wide pool may hold connections of another network
+                    connection.setRequestProperty("Connection", "close");
+                }
+                connection.setInstanceFollowRedirects(false);
+                connection.setConnectTimeout(timeoutMs);
+                connection.setReadTimeout(timeoutMs);
+                connection.setUseCaches(false);
+                connection.setRequestMethod(mRequestMethod);
+                final int responseCode = connection.getResponseCode();
+                reusable = release(connection, responseCode) && mNetwork != null;
+                if (responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                    return RESULT_NO_PORTAL;
+                }
+                if (mHttps) {
+                    // A portal can't answer for the real server over TLS
+                    return RESULT_FAILED;
+                }
+                if (responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                        || responseCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
+                    return RESULT_PORTAL_TIMEOUT;
+                }
+                return RESULT_PORTAL;
+            } catch (IOException e) {
+                return RESULT_FAILED;
+            } finally {
+                mLatencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                mConnection = null;
+                // A fully read response leaves the connection in the keep-alive pool
+                if (connection != null && !reusable) {
+                    connection.disconnect();
+                }
+            }
+        }
+
+        // Interrupting doesn't unblock socket reads, closing the connection does
+        void cancel() {
+            mCancelled = true;
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                sThreadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Drains and closes the response without reading a body, which HEAD and 204
+     * responses don't have anyway.
+     *
+     * @return Whether the connection can be reused.
+     */
+    private static boolean release(HttpURLConnection connection, int responseCode) {
+        InputStream in = null;
+        try {
+            in = responseCode < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                byte[] buffer = new byte[256];
+                int drained = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    drained += read;
+                    if (drained > MAX_DRAIN_BYTES) {
+                        // Not worth keeping, a portal sending a whole page
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import org.namelessrom.setupwizard.SetupWizardApp;
+
+import java.util.ArrayList;
+
+/**
+ * Enables and disables whole sets of components, such as every component of the
+ * GMS setup wizard.
+ * <p/>
+ * Components already in the wanted state are skipped. Current states are read
+ * on every call since GMS changes them itself, only the package info is cached.
+ * When disabling, only the last change may kill the package and flush its
+ * queued package changed broadcast.
+ */
+public class ComponentStateManager {
+
+    private static final String TAG = ComponentStateManager.class.getSimpleName();
+
+    private static final String GOOGLE_SETUPWIZARD_PACKAGE = "com.google.android.setupwizard";
+
+    private static final String SETUP_WIZARD_ACTIVITY =
+            "com.cyanogenmod.setupwizard.ui.SetupWizardActivity";
+
+    private static ComponentStateManager sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+
+    private PackageInfo mGmsPackageInfo;
+    private boolean mGmsResolved;
+
+    public static synchronized ComponentStateManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ComponentStateManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Use {@link #getInstance(Context)}, this is for tests bringing their own
+     * package manager through the context.
+     */
+    public ComponentStateManager(Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+    }
+
+    /**
+     * @return False if the GMS setup wizard is not installed.
+     */
+    public boolean setGmsSetupWizardEnabled(boolean enabled) {
+        PackageInfo packageInfo = getGmsPackageInfo();
+        if (packageInfo == null) {
+            Log.e(TAG, "Unable to " + (enabled ? "enable" : "disable") + " GMS");
+            return false;
+        }
+        ArrayList<ComponentName> components = new ArrayList<>();
+        ArrayList<Boolean> defaults = new ArrayList<>();
+        addComponents(packageInfo.activities, components, defaults);
+        addComponents(packageInfo.services, components, defaults);
+        addComponents(packageInfo.receivers, components, defaults);
+        setEnabled(components, defaults, enabled);
+        return true;
+    }
+
+    public void disableSetupWizard() {
+        ArrayList<ComponentName> components = new ArrayList<>(1);
+        components.add(new ComponentName(mContext.getPackageName(), SETUP_WIZARD_ACTIVITY));
+        ArrayList<Boolean> defaults = new ArrayList<>(1);
+        defaults.add(true);
+        setEnabled(components, defaults, false);
+    }
+
+    private synchronized PackageInfo getGmsPackageInfo() {
+        if (!mGmsResolved) {
+            try {
+                mGmsPackageInfo = mPackageManager.getPackageInfo(GOOGLE_SETUPWIZARD_PACKAGE,
+                        PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+                                | PackageManager.GET_SERVICES
+                                | PackageManager.GET_DISABLED_COMPONENTS);
+            } catch (PackageManager.NameNotFoundException e) {
+                mGmsPackageInfo = null;
+            }
+            mGmsResolved = true;
+        }
+        return mGmsPackageInfo;
+    }
+
+    private static void addComponents(ComponentInfo[] infos, ArrayList<ComponentName> components,
+            ArrayList<Boolean> defaults) {
+        if (infos != null) {
+            for (int i = 0; i < infos.length; i++) {
+                components.add(new ComponentName(infos[i].packageName, infos[i].name));
+                defaults.add(infos[i].enabled);
+            }
+        }
+    }
+
+    private synchronized void setEnabled(ArrayList<ComponentName> components,
+            ArrayList<Boolean> defaults, boolean enabled) {
+        final ArrayList<ComponentName> changes = new ArrayList<>();
+        for (int i = 0; i < components.size(); i++) {
+            if (isEnabled(components.get(i), defaults.get(i)) != enabled) {
+                changes.add(components.get(i));
+            }
+        }
+        final int state = enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                : PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+        for (int i = 0; i < changes.size(); i++) {
+            // Enabling never kills, disabling kills once at the end
+            final boolean last = i == changes.size() - 1;
+            final int flags = enabled || !last ? PackageManager.DONT_KILL_APP : 0;
+            mPackageManager.setComponentEnabledSetting(changes.get(i), state, flags);
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, (enabled ? "Enabled " : "Disabled ") + changes.size() + " of "
+                    + components.size() + " components");
+        }
+    }
+
+    private boolean isEnabled(ComponentName component, boolean enabledByDefault) {
+        final int state = mPackageManager.getComponentEnabledSetting(component);
+        return state == PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                || (state == PackageManager.COMPONENT_ENABLED_STATE_DEFAULT && enabledByDefault);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.content.Context;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+/**
+ * Device state the setup flow keeps asking for.
+ * <p/>
+ * Facts which can not change while we run (features, GMS, SIM slots) are queried
+ * once per process, on first use. Connectivity, mobile data and SIM state are kept
+ * until the matching broadcast invalidates them and are queried again on the next
+ * read. Broadcasts are only received while the setup activity exists, so the setup
+ * data calls {@link #invalidate()} whenever it resumes.
+ */
+public class DeviceStateSnapshot {
+
+    private static final String TAG = DeviceStateSnapshot.class.getSimpleName();
+
+    private static final int STATE_NETWORK_CONNECTED = 1;
+    private static final int STATE_MOBILE_DATA_ENABLED = 1 << 1;
+    private static final int STATE_SIM = 1 << 2;
+
+    private static DeviceStateSnapshot sInstance;
+
+    private final Context mContext;
+
+    private Boolean mHasTelephony;
+    private Boolean mHasLeanback;
+    private Boolean mIsMultiSimDevice;
+    private int mSimSlotCount = -1;
+    private Boolean mHasGMS;
+
+    private int mValidStates;
+    private boolean mNetworkConnected;
+    private boolean mMobileDataEnabled;
+    private boolean mSimInserted;
+    private boolean mAllSimsInserted;
+
+    // Reads served vs. queries actually made
+    private int mReadCount;
+    private int mQueryCount;
+
+    public static synchronized DeviceStateSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceStateSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DeviceStateSnapshot(Context context) {
+        mContext = context;
+    }
+
+    public synchronized boolean hasTelephony() {
+        mReadCount++;
+        if (mHasTelephony == null) {
+            mQueryCount++;
+            mHasTelephony = SetupWizardUtils.hasTelephony(mContext);
+        }
+        return mHasTelephony;
+    }
+
+    public synchronized boolean hasLeanback() {
+        mReadCount++;
+        if (mHasLeanback == null) {
+            mQueryCount++;
+            mHasLeanback = SetupWizardUtils.hasLeanback(mContext);
+        }
+        return mHasLeanback;
+    }
+
+    public synchronized boolean isMultiSimDevice() {
+        mReadCount++;
+        if (mIsMultiSimDevice == null) {
+            mQueryCount++;
+            mIsMultiSimDevice = SetupWizardUtils.isMultiSimDevice(mContext);
+        }
+        return mIsMultiSimDevice;
+    }
+
+    public synchronized boolean hasGMS() {
+        mReadCount++;
+        if (mHasGMS == null) {
+            // This goes through play services
+            mQueryCount++;
+            mHasGMS = SetupWizardUtils.hasGMS(mContext);
+        }
+        return mHasGMS;
+    }
+
+    public synchronized boolean isNetworkConnected() {
+        mReadCount++;
+        if ((mValidStates & STATE_NETWORK_CONNECTED) == 0) {
+            mQueryCount++;
+            mNetworkConnected = SetupWizardUtils.isNetworkConnected(mContext);
+            mValidStates |= STATE_NETWORK_CONNECTED;
+        }
+        return mNetworkConnected;
+    }
+
+    public synchronized boolean isMobileDataEnabled() {
+        mReadCount++;
+        if ((mValidStates & STATE_MOBILE_DATA_ENABLED) == 0) {
+            mQueryCount++;
+            mMobileDataEnabled = SetupWizardUtils.isMobileDataEnabled(mContext);
+            mValidStates |= STATE_MOBILE_DATA_ENABLED;
+        }
+        return mMobileDataEnabled;
+    }
+
+    // We only care that one sim is inserted
+    public synchronized boolean isSimInserted() {
+        mReadCount++;
+        ensureSimState();
+        return mSimInserted;
+    }
+
+    // We only care that each slot has a sim
+    public synchronized boolean allSimsInserted() {
+        mReadCount++;
+        ensureSimState();
+        return mAllSimsInserted;
+    }
+
+    private void ensureSimState() {
+        if ((mValidStates & STATE_SIM) != 0) {
+            return;
+        }
+        TelephonyManager tm = TelephonyManager.from(mContext);
+        if (mSimSlotCount < 0) {
+            mQueryCount++;
+            mSimSlotCount = tm.getSimCount();
+        }
+        boolean simInserted = false;
+        boolean allSimsInserted = true;
+        for (int i = 0; i < mSimSlotCount; i++) {
+            mQueryCount++;
+            int state = tm.getSimState(i);
+            if (state != TelephonyManager.SIM_STATE_ABSENT
+                    && state != TelephonyManager.SIM_STATE_UNKNOWN) {
+                simInserted = true;
+            }
+            if (state == TelephonyManager.SIM_STATE_ABSENT) {
+                allSimsInserted = false;
+            }
+        }
+        mSimInserted = simInserted;
+        mAllSimsInserted = allSimsInserted;
+        mValidStates |= STATE_SIM;
+    }
+
+    public synchronized void onConnectivityChanged() {
+        mValidStates &= ~STATE_NETWORK_CONNECTED;
+    }
+
+    public synchronized void onDataConnectionChanged() {
+        mValidStates &= ~(STATE_NETWORK_CONNECTED | STATE_MOBILE_DATA_ENABLED);
+    }
+
+    public synchronized void onSimStateChanged() {
+        mValidStates &= ~(STATE_SIM | STATE_MOBILE_DATA_ENABLED);
+    }
+
+    /**
+     * Drops every state that can change, for when broadcasts may have been missed.
+     */
+    public synchronized void invalidate() {
+        mValidStates = 0;
+    }
+
+    /**
+     * @return How many reads were answered without asking the system again.
+     */
+    public synchronized int getAvoidedQueryCount() {
+        return Math.max(mReadCount - mQueryCount, 0);
+    }
+
+    public synchronized void logStats() {
+        Log.d(TAG, String.format("%d reads, %d system queries, %d avoided",
+                mReadCount, mQueryCount, getAvoidedQueryCount()));
+    }
+}
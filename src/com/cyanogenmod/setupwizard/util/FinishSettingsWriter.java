@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the settings pages write when setup finishes and applies them in one
+ * provider batch per settings table, off the UI thread.
+ * <p/>
+ * A setting written twice before {@link #apply(Callback)} is only written once,
+ * with the last value.
+ */
+public class FinishSettingsWriter {
+
+    private static final String TAG = FinishSettingsWriter.class.getSimpleName();
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onComplete();
+    }
+
+    private static final int TABLE_GLOBAL = 0;
+    private static final int TABLE_SECURE = 1;
+    private static final int TABLE_SYSTEM = 2;
+
+    private static final Uri[] TABLE_URIS = {
+            Settings.Global.CONTENT_URI,
+            Settings.Secure.CONTENT_URI,
+            Settings.System.CONTENT_URI
+    };
+
+    private static FinishSettingsWriter sInstance;
+
+    private final Context mContext;
+
+    private final ArrayList<LinkedHashMap<String, String>> mPending = new ArrayList<>();
+
+    private int mApplying;
+
+    public static synchronized FinishSettingsWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FinishSettingsWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FinishSettingsWriter(Context context) {
+        mContext = context;
+        for (int i = 0; i < TABLE_URIS.length; i++) {
+            mPending.add(new LinkedHashMap<String, String>());
+        }
+    }
+
+    public synchronized void putGlobalInt(String name, int value) {
+        mPending.get(TABLE_GLOBAL).put(name, Integer.toString(value));
+    }
+
+    public synchronized void putSecureInt(String name, int value) {
+        mPending.get(TABLE_SECURE).put(name, Integer.toString(value));
+    }
+
+    public synchronized void putSystemInt(String name, int value) {
+        mPending.get(TABLE_SYSTEM).put(name, Integer.toString(value));
+    }
+
+    /**
+     * @return Whether a batch is being applied. Writes which are only queued do not
+     * count, nothing may come to apply them before the final batch.
+     */
+    public synchronized boolean isBusy() {
+        return mApplying > 0;
+    }
+
+    /**
+     * Applies everything queued so far. The callback is called on the UI thread,
+     * batches are applied in the order they were started.
+     */
+    public void apply(Callback callback) {
+        final ArrayList<LinkedHashMap<String, String>> writes = takePending();
+        synchronized (this) {
+            mApplying++;
+        }
+        new ApplyTask(writes, callback).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * Applies everything queued so far on the calling thread.
+     */
+    public void applyNow() {
+        final ArrayList<LinkedHashMap<String, String>> writes = takePending();
+        synchronized (this) {
+            mApplying++;
+        }
+        try {
+            write(writes, null);
+        } finally {
+            onApplied();
+        }
+    }
+
+    private synchronized ArrayList<LinkedHashMap<String, String>> takePending() {
+        final ArrayList<LinkedHashMap<String, String>> writes = new ArrayList<>();
+        for (int i = 0; i < mPending.size(); i++) {
+            writes.add(new LinkedHashMap<>(mPending.get(i)));
+            mPending.get(i).clear();
+        }
+        return writes;
+    }
+
+    private void write(ArrayList<LinkedHashMap<String, String>> allWrites, ApplyTask task) {
+        final ContentResolver resolver = mContext.getContentResolver();
+        int total = 0;
+        for (int i = 0; i < allWrites.size(); i++) {
+            total += allWrites.get(i).size();
+        }
+        int done = 0;
+        for (int table = 0; table < allWrites.size(); table++) {
+            Map<String, String> writes = allWrites.get(table);
+            if (writes.isEmpty()) {
+                continue;
+            }
+            ArrayList<ContentProviderOperation> ops = new ArrayList<>(writes.size());
+            for (Map.Entry<String, String> entry : writes.entrySet()) {
+                ops.add(ContentProviderOperation.newInsert(TABLE_URIS[table])
+                        .withValue(Settings.NameValueTable.NAME, entry.getKey())
+                        .withValue(Settings.NameValueTable.VALUE, entry.getValue())
+                        .build());
+            }
+            try {
+                resolver.applyBatch(Settings.AUTHORITY, ops);
+            } catch (Exception e) {
+                Log.w(TAG, "Batch write failed, writing one by one", e);
+                putEach(resolver, table, writes);
+            }
+            done += writes.size();
+            if (task != null) {
+                task.onTableWritten(done * 100 / total);
+            }
+        }
+    }
+
+    private synchronized void onApplied() {
+        mApplying--;
+    }
+
+    private class ApplyTask extends AsyncTask<Void, Integer, Void> {
+
+        private final ArrayList<LinkedHashMap<String, String>> mWrites;
+        private final Callback mCallback;
+
+        private ApplyTask(ArrayList<LinkedHashMap<String, String>> writes, Callback callback) {
+            mWrites = writes;
+            mCallback = callback;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            write(mWrites, this);
+            return null;
+        }
+
+        private void onTableWritten(int progress) {
+            publishProgress(progress);
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            if (mCallback != null) {
+                mCallback.onProgress(values[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            onApplied();
+            if (mCallback != null) {
+                mCallback.onComplete();
+            }
+        }
+    }
+
+    private static void putEach(ContentResolver resolver, int table, Map<String, String> writes) {
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            switch (table) {
+                case TABLE_GLOBAL:
+                    Settings.Global.putString(resolver, entry.getKey(), entry.getValue());
+                    break;
+                case TABLE_SECURE:
+                    Settings.Secure.putString(resolver, entry.getKey(), entry.getValue());
+                    break;
+                case TABLE_SYSTEM:
+                    Settings.System.putString(resolver, entry.getKey(), entry.getValue());
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts durations into fixed millisecond buckets, safe to record from any thread.
+ */
+public class LatencyHistogram {
+
+    private static final long[] DEFAULT_BOUNDS_MS = { 16, 50, 100, 250, 500, 1000, 2000, 5000 };
+
+    // Upper bounds, the last bucket takes everything above the last bound
+    private final long[] mBoundsMs;
+    private final AtomicIntegerArray mCounts;
+
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS_MS);
+    }
+
+    public LatencyHistogram(long[] boundsMs) {
+        mBoundsMs = boundsMs.clone();
+        mCounts = new AtomicIntegerArray(boundsMs.length + 1);
+    }
+
+    public void record(long durationMs) {
+        int bucket = 0;
+        while (bucket < mBoundsMs.length && durationMs >= mBoundsMs[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+    }
+
+    public int getBucketCount() {
+        return mCounts.length();
+    }
+
+    public int getCount(int bucket) {
+        return mCounts.get(bucket);
+    }
+
+    public int getTotalCount() {
+        int total = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            total += mCounts.get(i);
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    /**
+     * Formats as e.g. "<16ms=3 <50ms=1 >=5000ms=0".
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mCounts.length(); i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            if (i < mBoundsMs.length) {
+                builder.append('<').append(mBoundsMs[i]);
+            } else {
+                builder.append(">=").append(mBoundsMs[mBoundsMs.length - 1]);
+            }
+            builder.append("ms=").append(mCounts.get(i));
+        }
+        return builder.toString();
+    }
+}
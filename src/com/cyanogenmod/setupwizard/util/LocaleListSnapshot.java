@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+
+import com.android.internal.app.LocalePicker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Labels and locales offered by the system locale picker, computed once and
+ * kept in memory and in a small file keyed by the system locale list.
+ * <p/>
+ * Labels and their order depend on the default locale, which changes while the
+ * user picks a language, so one list is kept per default locale. The file is
+ * only touched off the UI thread, see {@link #peek()} and {@link #preload}.
+ */
+public final class LocaleListSnapshot {
+
+    private static final String TAG = LocaleListSnapshot.class.getSimpleName();
+
+    private static final String SNAPSHOT_FILE = "locale_snapshot";
+    private static final int SNAPSHOT_VERSION = 2;
+
+    // By default locale, for the system locale list of this build
+    private static final ConcurrentHashMap<String, LocaleListSnapshot> sInstances =
+            new ConcurrentHashMap<>();
+    private static boolean sFileRead;
+
+    private final String[] mLabels;
+    private final Locale[] mLocales;
+    private final HashMap<Locale, Integer> mIndices;
+
+    private LocaleListSnapshot(String[] labels, Locale[] locales) {
+        mLabels = labels;
+        mLocales = locales;
+        mIndices = new HashMap<Locale, Integer>(locales.length * 2);
+        for (int i = 0; i < locales.length; i++) {
+            mIndices.put(locales[i], i);
+        }
+    }
+
+    /**
+     * @return The list for the current default locale if it is in memory, never
+     *         blocks.
+     */
+    public static LocaleListSnapshot peek() {
+        return sInstances.get(Locale.getDefault().toString());
+    }
+
+    /**
+     * Gets the list for the current default locale into memory in the background.
+     */
+    public static void preload(Context context, final int layoutId, final int fieldId) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                getInstance(appContext, layoutId, fieldId);
+            }
+        });
+    }
+
+    /**
+     * May read or build the list, don't call on the UI thread unless {@link #peek()}
+     * answered.
+     */
+    public static synchronized LocaleListSnapshot getInstance(Context context,
+            int layoutId, int fieldId) {
+        final String defaultLocale = Locale.getDefault().toString();
+        LocaleListSnapshot snapshot = sInstances.get(defaultLocale);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        final AtomicFile file = new AtomicFile(
+                new File(context.getCacheDir(), SNAPSHOT_FILE));
+        if (!sFileRead) {
+            sFileRead = true;
+            read(file, getSystemKey());
+            snapshot = sInstances.get(defaultLocale);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        snapshot = build(context, layoutId, fieldId);
+        sInstances.put(defaultLocale, snapshot);
+        writeAsync(file, getSystemKey(), new HashMap<>(sInstances));
+        return snapshot;
+    }
+
+    public String[] getLabels() {
+        return mLabels;
+    }
+
+    public Locale getLocale(int index) {
+        return mLocales[index];
+    }
+
+    public int indexOf(Locale locale) {
+        final Integer index = mIndices.get(locale);
+        return index != null ? index : -1;
+    }
+
+    private static String getSystemKey() {
+        final StringBuilder key = new StringBuilder(Build.FINGERPRINT);
+        for (String locale : Resources.getSystem().getAssets().getLocales()) {
+            key.append('|').append(locale);
+        }
+        return key.toString();
+    }
+
+    private static LocaleListSnapshot build(Context context, int layoutId, int fieldId) {
+        final ArrayAdapter<LocalePicker.LocaleInfo> adapter =
+                LocalePicker.constructAdapter(context, layoutId, fieldId);
+        final int count = adapter.getCount();
+        final String[] labels = new String[count];
+        final Locale[] locales = new Locale[count];
+        for (int i = 0; i < count; i++) {
+            final LocalePicker.LocaleInfo localeInfo = adapter.getItem(i);
+            labels[i] = localeInfo.getLabel();
+            locales[i] = localeInfo.getLocale();
+        }
+        return new LocaleListSnapshot(labels, locales);
+    }
+
+    private static void read(AtomicFile file, String systemKey) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(file.openRead());
+            if (in.readInt() != SNAPSHOT_VERSION || !systemKey.equals(in.readUTF())) {
+                return;
+            }
+            final int snapshotCount = in.readInt();
+            for (int i = 0; i < snapshotCount; i++) {
+                final String defaultLocale = in.readUTF();
+                final int count = in.readInt();
+                final String[] labels = new String[count];
+                final Locale[] locales = new Locale[count];
+                for (int j = 0; j < count; j++) {
+                    labels[j] = in.readUTF();
+                    locales[j] = new Locale(in.readUTF(), in.readUTF(), in.readUTF());
+                }
+                sInstances.put(defaultLocale, new LocaleListSnapshot(labels, locales));
+            }
+        } catch (IOException e) {
+            // No snapshot yet, or a broken one
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    // Serial, so a later write never loses to an earlier one
+    private static void writeAsync(final AtomicFile file, final String systemKey,
+            final HashMap<String, LocaleListSnapshot> snapshots) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, systemKey, snapshots);
+            }
+        });
+    }
+
+    private static void write(AtomicFile file, String systemKey,
+            HashMap<String, LocaleListSnapshot> snapshots) {
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(systemKey);
+            out.writeInt(snapshots.size());
+            for (Map.Entry<String, LocaleListSnapshot> entry : snapshots.entrySet()) {
+                final LocaleListSnapshot snapshot = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(snapshot.mLabels.length);
+                for (int i = 0; i < snapshot.mLabels.length; i++) {
+                    final Locale locale = snapshot.mLocales[i];
+                    out.writeUTF(snapshot.mLabels[i]);
+                    out.writeUTF(locale.getLanguage());
+                    out.writeUTF(locale.getCountry());
+                    out.writeUTF(locale.getVariant());
+                }
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write locale snapshot", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+    }
+}
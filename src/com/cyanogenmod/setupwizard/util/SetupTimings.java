@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records how long the phases of setup take.
+ * <p/>
+ * Every start and end is kept in a fixed size ring buffer of recent events and
+ * the durations are added up into per page histograms. Both show up in
+ * {@code dumpsys activity} for the setup activity and can be written to a file.
+ */
+public class SetupTimings {
+    private static final String TAG = SetupTimings.class.getSimpleName();
+
+    /** From doLoadAction to onPageLoaded. */
+    public static final int PHASE_LOAD = 0;
+    /** Inflating the page and running initializePage. */
+    public static final int PHASE_INIT = 1;
+    /** Time spent in an activity started for a result. */
+    public static final int PHASE_EXTERNAL = 2;
+    /** From onFinish to finalizeSetup. */
+    public static final int PHASE_FINISH = 3;
+
+    private static final int PHASE_COUNT = 4;
+    private static final String[] PHASE_NAMES = { "load", "init", "external", "finish" };
+
+    private static final int RING_SIZE = 512;
+
+    /** Key used for phases not tied to a page. */
+    public static final String KEY_SETUP = "setup";
+
+    private static SetupTimings sInstance;
+
+    // Ring buffer of events, mRingNext is the slot written next
+    private final long[] mRingTimes = new long[RING_SIZE];
+    private final int[] mRingEvents = new int[RING_SIZE];
+    private final String[] mRingKeys = new String[RING_SIZE];
+    private int mRingNext;
+    private int mRingCount;
+
+    // Per key, the start time of each open phase or -1
+    private final HashMap<String, long[]> mStarts = new HashMap<>();
+    private final HashMap<String, LatencyHistogram[]> mHistograms = new HashMap<>();
+
+    public static synchronized SetupTimings getInstance() {
+        if (sInstance == null) {
+            sInstance = new SetupTimings();
+        }
+        return sInstance;
+    }
+
+    private SetupTimings() {}
+
+    public synchronized void start(int phase, String key) {
+        final long now = SystemClock.elapsedRealtimeNanos();
+        record(now, phase << 1, key);
+        getStarts(key)[phase] = now;
+    }
+
+    /**
+     * Ends the phase, ignored if it wasn't started for the key.
+     */
+    public synchronized void end(int phase, String key) {
+        final long now = SystemClock.elapsedRealtimeNanos();
+        final long[] starts = getStarts(key);
+        if (starts[phase] < 0) {
+            return;
+        }
+        record(now, (phase << 1) | 1, key);
+        getHistograms(key)[phase].record((now - starts[phase]) / 1000000);
+        starts[phase] = -1;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.println("Setup timings:");
+        for (Map.Entry<String, LatencyHistogram[]> entry : mHistograms.entrySet()) {
+            LatencyHistogram[] histograms = entry.getValue();
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (histograms[phase].getTotalCount() == 0) {
+                    continue;
+                }
+                writer.print(prefix); writer.print("  ");
+                writer.print(entry.getKey()); writer.print(' ');
+                writer.print(PHASE_NAMES[phase]); writer.print(": ");
+                writer.println(histograms[phase]);
+            }
+        }
+        writer.print(prefix); writer.print("Last "); writer.print(mRingCount);
+        writer.println(" events (ms since the first):");
+        final int first = (mRingNext - mRingCount + RING_SIZE) % RING_SIZE;
+        final long base = mRingTimes[first];
+        for (int i = 0; i < mRingCount; i++) {
+            int slot = (first + i) % RING_SIZE;
+            writer.print(prefix); writer.print("  ");
+            writer.print((mRingTimes[slot] - base) / 1000000); writer.print(' ');
+            writer.print(PHASE_NAMES[mRingEvents[slot] >> 1]);
+            writer.print((mRingEvents[slot] & 1) == 0 ? " start " : " end ");
+            writer.println(mRingKeys[slot]);
+        }
+    }
+
+    public void writeToFile(File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(file));
+            dump("", writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + file, e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private void record(long time, int event, String key) {
+        mRingTimes[mRingNext] = time;
+        mRingEvents[mRingNext] = event;
+        mRingKeys[mRingNext] = key;
+        mRingNext = (mRingNext + 1) % RING_SIZE;
+        if (mRingCount < RING_SIZE) {
+            mRingCount++;
+        }
+    }
+
+    private long[] getStarts(String key) {
+        long[] starts = mStarts.get(key);
+        if (starts == null) {
+            starts = new long[PHASE_COUNT];
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                starts[i] = -1;
+            }
+            mStarts.put(key, starts);
+        }
+        return starts;
+    }
+
+    private LatencyHistogram[] getHistograms(String key) {
+        LatencyHistogram[] histograms = mHistograms.get(key);
+        if (histograms == null) {
+            histograms = new LatencyHistogram[PHASE_COUNT];
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            mHistograms.put(key, histograms);
+        }
+        return histograms;
+    }
+}
@@ -19,8 +19,6 @@ package com.cyanogenmod.setupwizard.util;
 import android.accounts.AccountManager;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.ComponentInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -29,7 +27,6 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
-import android.util.Log;
 
 import com.android.internal.telephony.SubscriptionController;
 import com.cyanogenmod.setupwizard.ui.SetupWizardActivity;
@@ -40,8 +37,6 @@ public class SetupWizardUtils {
 
     private static final String TAG = SetupWizardUtils.class.getSimpleName();
 
-    private static final String GOOGLE_SETUPWIZARD_PACKAGE = "com.google.android.setupwizard";
-
     private SetupWizardUtils(){}
 
     public static void tryEnablingWifi(Context context) {
@@ -145,72 +140,15 @@ public class SetupWizardUtils {
     }
 
     public static void disableSetupWizard(Context context) {
-        disableComponent(context, context.getPackageName(),
-                "com.cyanogenmod.setupwizard.ui.SetupWizardActivity");
+        ComponentStateManager.getInstance(context).disableSetupWizard();
     }
 
     public static void disableGMSSetupWizard(Context context) {
-        try {
-            PackageInfo packageInfo = context.getPackageManager()
-                    .getPackageInfo(GOOGLE_SETUPWIZARD_PACKAGE, PackageManager.GET_ACTIVITIES |
-                            PackageManager.GET_RECEIVERS | PackageManager.GET_SERVICES);
-            disableComponentArray(context, packageInfo.activities);
-            disableComponentArray(context, packageInfo.services);
-            disableComponentArray(context, packageInfo.receivers);
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "Unable to disable GMS");
-        }
+        ComponentStateManager.getInstance(context).setGmsSetupWizardEnabled(false);
     }
 
     public static boolean enableGMSSetupWizard(Context context) {
-        try {
-            PackageInfo packageInfo = context.getPackageManager()
-                    .getPackageInfo(GOOGLE_SETUPWIZARD_PACKAGE, PackageManager.GET_ACTIVITIES |
-                            PackageManager.GET_RECEIVERS | PackageManager.GET_SERVICES);
-            enableComponentArray(context, packageInfo.activities);
-            enableComponentArray(context, packageInfo.services);
-            enableComponentArray(context, packageInfo.receivers);
-            return true;
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "Unable to enable GMS");
-            return false;
-        }
-    }
-
-    private static void disableComponentArray(Context context, ComponentInfo[] components) {
-        if(components != null) {
-            ComponentInfo[] componentInfos = components;
-            for(int i = 0; i < componentInfos.length; i++) {
-                disableComponent(context, componentInfos[i].packageName, componentInfos[i].name);
-            }
-        }
-    }
-
-    private static void disableComponent(Context context, String packageName, String name) {
-        disableComponent(context, new ComponentName(packageName, name));
-    }
-
-    private static void disableComponent(Context context, ComponentName component) {
-        context.getPackageManager().setComponentEnabledSetting(component,
-                PackageManager.COMPONENT_ENABLED_STATE_DISABLED, 0);
-    }
-
-    private static void enableComponentArray(Context context, ComponentInfo[] components) {
-        if(components != null) {
-            ComponentInfo[] componentInfos = components;
-            for(int i = 0; i < componentInfos.length; i++) {
-                enableComponent(context, componentInfos[i].packageName, componentInfos[i].name);
-            }
-        }
-    }
-
-    private static void enableComponent(Context context, String packageName, String name) {
-        enableComponent(context, new ComponentName(packageName, name));
-    }
-
-    private static void enableComponent(Context context, ComponentName component) {
-        context.getPackageManager().setComponentEnabledSetting(component,
-                PackageManager.COMPONENT_ENABLED_STATE_ENABLED, PackageManager.DONT_KILL_APP);
+        return ComponentStateManager.getInstance(context).setGmsSetupWizardEnabled(true);
     }
 
     public static boolean hasLeanback(Context context) {
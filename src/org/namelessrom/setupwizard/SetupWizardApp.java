@@ -25,6 +25,7 @@ import android.os.SystemProperties;
 import android.content.pm.PackageManager;
 import android.provider.Settings;
 
+import com.cyanogenmod.setupwizard.util.ComponentStateManager;
 import com.cyanogenmod.setupwizard.util.SetupWizardUtils;
 
 public class SetupWizardApp extends Application {
@@ -78,8 +79,10 @@ public class SetupWizardApp extends Application {
             if (!isOwner
                     || Settings.Secure.getInt(getContentResolver(),
                     Settings.Secure.USER_SETUP_COMPLETE) == 1) {
-                SetupWizardUtils.disableGMSSetupWizard(this);
-                SetupWizardUtils.disableSetupWizard(this);
+                final ComponentStateManager components = ComponentStateManager.getInstance(this);
+                // GMS first, so its HOME activity never takes over from ours
+                components.setGmsSetupWizardEnabled(false);
+                components.disableSetupWizard();
                 if (!isOwner) {
                     disableThemeComponentsForSecondaryUser();
                 }
@@ -111,11 +114,6 @@ public class SetupWizardApp extends Application {
                 Settings.Global.CAPTIVE_PORTAL_DETECTION_ENABLED, 0);
     }
 
-    public void enableCaptivePortalDetection() {
-        Settings.Global.putInt(getContentResolver(),
-                Settings.Global.CAPTIVE_PORTAL_DETECTION_ENABLED, 1);
-    }
-
     private void disableThemeComponentsForSecondaryUser() {
         PackageManager pm = getPackageManager();
         for(String pkgName : THEME_PACKAGES) {
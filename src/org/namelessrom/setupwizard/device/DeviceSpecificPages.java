@@ -37,6 +37,9 @@ import java.util.ArrayList;
  * <i>BOARD_SETUP_WIZARD_CLASS := device/sample/setupwizard/src</i>
  * <p/>
  * <i>BOARD_SETUP_WIZARD_RESOURCES := device/sample/setupwizard/res</i>
+ * <p/>
+ * Pages returning a VisibilityRule from getVisibilityRule() are shown and hidden
+ * as the signals it depends on change.
  */
 public class DeviceSpecificPages {
     private final ArrayList<Page> mPages;
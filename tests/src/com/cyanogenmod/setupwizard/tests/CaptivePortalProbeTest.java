@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.util.CaptivePortalProbe;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link CaptivePortalProbe} against local stand-in servers.
+ */
+public class CaptivePortalProbeTest extends InstrumentationTestCase {
+
+    private static final String TAG = CaptivePortalProbeTest.class.getSimpleName();
+
+    private static final int DEADLINE_MS = 1500;
+
+    // Scheduling and socket teardown on a loaded device
+    private static final long SLACK_MS = 750;
+
+    private final ArrayList<FakeHttpServer> mServers = new ArrayList<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (FakeHttpServer server : mServers) {
+            server.shutdown();
+        }
+        mServers.clear();
+        super.tearDown();
+    }
+
+    public void testNoContentIsNoPortal() throws Exception {
+        final FakeHttpServer server = startServer(204);
+        assertFalse(probe(DEADLINE_MS, server).isCaptivePortal(null));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testRedirectIsPortal() throws Exception {
+        final FakeHttpServer server = startServer(302);
+        assertTrue(probe(DEADLINE_MS, server).isCaptivePortal(null));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testRequestTimeoutIsRetriedThenPortal() throws Exception {
+        final FakeHttpServer server = startServer(408);
+        final long start = SystemClock.elapsedRealtime();
+        assertTrue(probe(DEADLINE_MS, server).isCaptivePortal(null));
+        assertWithinDeadline(start, DEADLINE_MS);
+        assertTrue(server.getRequestCount() > 1);
+    }
+
+    public void testGatewayTimeoutIsRetriedThenPortal() throws Exception {
+        final FakeHttpServer server = startServer(504);
+        final long start = SystemClock.elapsedRealtime();
+        assertTrue(probe(DEADLINE_MS, server).isCaptivePortal(null));
+        assertWithinDeadline(start, DEADLINE_MS);
+        assertTrue(server.getRequestCount() > 1);
+    }
+
+    public void testHangingServerEndsAtDeadline() throws Exception {
+        final FakeHttpServer server = startServer(FakeHttpServer.HANG);
+        final long start = SystemClock.elapsedRealtime();
+        assertFalse(probe(DEADLINE_MS, server).isCaptivePortal(null));
+        assertWithinDeadline(start, DEADLINE_MS);
+    }
+
+    public void testDeadlineIsConfigurable() throws Exception {
+        final FakeHttpServer server = startServer(FakeHttpServer.HANG);
+        for (int deadlineMs : new int[] { 500, 2500 }) {
+            final long start = SystemClock.elapsedRealtime();
+            assertFalse(probe(deadlineMs, server).isCaptivePortal(null));
+            final long elapsed = SystemClock.elapsedRealtime() - start;
+            assertTrue("took " + elapsed + " ms", elapsed >= deadlineMs - 50);
+            assertWithinDeadline(start, deadlineMs);
+        }
+    }
+
+    public void testFirstConclusiveAnswerWins() throws Exception {
+        final FakeHttpServer hanging = startServer(FakeHttpServer.HANG);
+        final FakeHttpServer answering = startServer(204);
+        final long start = SystemClock.elapsedRealtime();
+        assertFalse(probe(DEADLINE_MS, hanging, answering).isCaptivePortal(null));
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("took " + elapsed + " ms", elapsed < DEADLINE_MS / 2);
+    }
+
+    public void testCheckCallsBack() throws Exception {
+        final FakeHttpServer server = startServer(302);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] result = new boolean[1];
+        probe(DEADLINE_MS, server).check(null, new CaptivePortalProbe.Callback() {
+            @Override
+            public void onProbeFinished(boolean isCaptivePortal) {
+                result[0] = isCaptivePortal;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(DEADLINE_MS + SLACK_MS, TimeUnit.MILLISECONDS));
+        assertTrue(result[0]);
+    }
+
+    public void testManyChecksShareTheProbeThreads() throws Exception {
+        final FakeHttpServer server = startServer(204);
+        final CaptivePortalProbe probe = probe(DEADLINE_MS, server);
+        final int checks = 20;
+        final CountDownLatch latch = new CountDownLatch(checks);
+        for (int i = 0; i < checks; i++) {
+            probe.check(null, new CaptivePortalProbe.Callback() {
+                @Override
+                public void onProbeFinished(boolean isCaptivePortal) {
+                    if (!isCaptivePortal) {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(latch.await(checks * DEADLINE_MS, TimeUnit.MILLISECONDS));
+        assertEquals(checks, probe.getLatencyHistogram().getTotalCount());
+    }
+
+    public void testProbesWithHead() throws Exception {
+        final FakeHttpServer server = startServer(204);
+        final CaptivePortalProbe probe = probe(DEADLINE_MS, server);
+        assertFalse(probe.isCaptivePortal(null));
+        assertFalse(probe.isCaptivePortal(null));
+        assertEquals(Arrays.asList("HEAD", "HEAD"), server.getMethods());
+    }
+
+    public void testProbesWithGetWhenAsked() throws Exception {
+        final FakeHttpServer server = startServer(204);
+        final CaptivePortalProbe probe = probe(DEADLINE_MS, server);
+        probe.setUseGet(true);
+        assertFalse(probe.isCaptivePortal(null));
+        assertEquals(Arrays.asList("GET"), server.getMethods());
+    }
+
+    public void testNetworkChecksReuseOneConnection() throws Exception {
+        final Network network = getConnectedNetwork();
+        if (network == null) {
+            Log.w(TAG, "No connected network, skipping the keep-alive check");
+            return;
+        }
+        final FakeHttpServer server = startServer(204, true);
+        final CaptivePortalProbe probe = probe(DEADLINE_MS, server);
+        final int checks = 3;
+        for (int i = 0; i < checks; i++) {
+            // The same instance, connections are pooled per network
+            assertFalse(probe.isCaptivePortal(network));
+        }
+        assertEquals(checks, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+        final List<String> methods = server.getMethods();
+        for (int i = 0; i < methods.size(); i++) {
+            assertEquals("HEAD", methods.get(i));
+        }
+    }
+
+    public void testChecksWithoutNetworkDontKeepConnections() throws Exception {
+        final FakeHttpServer server = startServer(204, true);
+        final CaptivePortalProbe probe = probe(DEADLINE_MS, server);
+        final int checks = 3;
+        for (int i = 0; i < checks; i++) {
+            assertFalse(probe.isCaptivePortal(null));
+        }
+        assertEquals(checks, server.getConnectionCount());
+    }
+
+    private Network getConnectedNetwork() {
+        final ConnectivityManager cm = (ConnectivityManager) getInstrumentation()
+                .getTargetContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        for (Network network : cm.getAllNetworks()) {
+            final NetworkInfo info = cm.getNetworkInfo(network);
+            if (info != null && info.isConnected()) {
+                return network;
+            }
+        }
+        return null;
+    }
+
+    private FakeHttpServer startServer(int responseCode) throws Exception {
+        return startServer(responseCode, false);
+    }
+
+    private FakeHttpServer startServer(int responseCode, boolean keepAlive) throws Exception {
+        final FakeHttpServer server = new FakeHttpServer(responseCode, keepAlive);
+        mServers.add(server);
+        return server;
+    }
+
+    private static CaptivePortalProbe probe(int deadlineMs, FakeHttpServer... servers)
+            throws Exception {
+        final URL[] urls = new URL[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            urls[i] = servers[i].getUrl();
+        }
+        return new CaptivePortalProbe(Arrays.asList(urls), deadlineMs);
+    }
+
+    private static void assertWithinDeadline(long start, int deadlineMs) {
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("took " + elapsed + " ms", elapsed < deadlineMs + SLACK_MS);
+    }
+}
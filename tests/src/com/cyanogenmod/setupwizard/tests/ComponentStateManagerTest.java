@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockPackageManager;
+
+import com.cyanogenmod.setupwizard.util.ComponentStateManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class ComponentStateManagerTest extends InstrumentationTestCase {
+
+    private static final String GMS_PACKAGE = "com.google.android.setupwizard";
+
+    private FakePackageManager mPackageManager;
+    private ComponentStateManager mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPackageManager = new FakePackageManager();
+        final Context context = new ContextWrapper(getInstrumentation().getTargetContext()) {
+            @Override
+            public PackageManager getPackageManager() {
+                return mPackageManager;
+            }
+        };
+        mManager = new ComponentStateManager(context);
+    }
+
+    public void testDisableSkipsDisabledComponents() {
+        mPackageManager.mStates.put(component("Disabled"),
+                PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+        assertTrue(mManager.setGmsSetupWizardEnabled(false));
+
+        // Off by default and explicitly disabled are both left alone
+        assertEquals(2, mPackageManager.mChanges.size());
+        assertEquals(component("Enabled"), mPackageManager.mChanges.get(0));
+        assertEquals(component("Service"), mPackageManager.mChanges.get(1));
+        for (int i = 0; i < mPackageManager.mChanges.size(); i++) {
+            assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                    (int) mPackageManager.mStates.get(mPackageManager.mChanges.get(i)));
+        }
+    }
+
+    public void testOnlyLastDisableKills() {
+        assertTrue(mManager.setGmsSetupWizardEnabled(false));
+        final ArrayList<Integer> flags = mPackageManager.mFlags;
+        assertEquals(3, flags.size());
+        for (int i = 0; i < flags.size() - 1; i++) {
+            assertEquals(PackageManager.DONT_KILL_APP, (int) flags.get(i));
+        }
+        assertEquals(0, (int) flags.get(flags.size() - 1));
+    }
+
+    public void testSecondDisableChangesNothing() {
+        assertTrue(mManager.setGmsSetupWizardEnabled(false));
+        mPackageManager.mChanges.clear();
+        mPackageManager.mFlags.clear();
+        assertTrue(mManager.setGmsSetupWizardEnabled(false));
+        assertTrue(mPackageManager.mChanges.isEmpty());
+    }
+
+    public void testEnableNeverKills() {
+        assertTrue(mManager.setGmsSetupWizardEnabled(false));
+        mPackageManager.mChanges.clear();
+        mPackageManager.mFlags.clear();
+        assertTrue(mManager.setGmsSetupWizardEnabled(true));
+        assertEquals(4, mPackageManager.mChanges.size());
+        for (int i = 0; i < mPackageManager.mFlags.size(); i++) {
+            assertEquals(PackageManager.DONT_KILL_APP, (int) mPackageManager.mFlags.get(i));
+        }
+    }
+
+    public void testMissingGmsPackage() {
+        mPackageManager.mHasGms = false;
+        assertFalse(mManager.setGmsSetupWizardEnabled(false));
+        assertTrue(mPackageManager.mChanges.isEmpty());
+    }
+
+    private static ComponentName component(String name) {
+        return new ComponentName(GMS_PACKAGE, GMS_PACKAGE + "." + name);
+    }
+
+    private static class FakePackageManager extends MockPackageManager {
+        final HashMap<ComponentName, Integer> mStates = new HashMap<>();
+        final ArrayList<ComponentName> mChanges = new ArrayList<>();
+        final ArrayList<Integer> mFlags = new ArrayList<>();
+        boolean mHasGms = true;
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags)
+                throws NameNotFoundException {
+            if (!mHasGms || !GMS_PACKAGE.equals(packageName)) {
+                throw new NameNotFoundException(packageName);
+            }
+            final PackageInfo info = new PackageInfo();
+            info.packageName = packageName;
+            info.activities = new ActivityInfo[] {
+                    activity("Enabled", true),
+                    activity("Disabled", true),
+                    activity("OffByDefault", false)
+            };
+            final ServiceInfo service = new ServiceInfo();
+            service.packageName = packageName;
+            service.name = component("Service").getClassName();
+            service.enabled = true;
+            info.services = new ServiceInfo[] { service };
+            return info;
+        }
+
+        @Override
+        public int getComponentEnabledSetting(ComponentName componentName) {
+            final Integer state = mStates.get(componentName);
+            return state != null ? state : PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
+        }
+
+        @Override
+        public void setComponentEnabledSetting(ComponentName componentName, int newState,
+                int flags) {
+            mStates.put(componentName, newState);
+            mChanges.add(componentName);
+            mFlags.add(flags);
+        }
+
+        private static ActivityInfo activity(String name, boolean enabled) {
+            final ActivityInfo activity = new ActivityInfo();
+            activity.packageName = GMS_PACKAGE;
+            activity.name = component(name).getClassName();
+            activity.enabled = enabled;
+            return activity;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for a captive portal check server. Answers every request with
+ * a fixed status code, or never answers at all. In keep-alive mode connections
+ * stay open for more requests unless the client asks to close them.
+ */
+final class FakeHttpServer {
+
+    static final int HANG = -1;
+
+    private final ServerSocket mServerSocket;
+    private final int mResponseCode;
+    private final boolean mKeepAlive;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final List<String> mMethods = Collections.synchronizedList(new ArrayList<String>());
+    private final ArrayList<Socket> mSockets = new ArrayList<>();
+    private final Thread mThread;
+
+    FakeHttpServer(int responseCode) throws IOException {
+        this(responseCode, false);
+    }
+
+    FakeHttpServer(int responseCode, boolean keepAlive) throws IOException {
+        mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        mResponseCode = responseCode;
+        mKeepAlive = keepAlive;
+        mThread = new Thread("FakeHttpServer") {
+            @Override
+            public void run() {
+                acceptAll();
+            }
+        };
+        mThread.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), "/generate_204");
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return How many connections were accepted.
+     */
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * @return The method of every request, in the order they came.
+     */
+    List<String> getMethods() {
+        synchronized (mMethods) {
+            return new ArrayList<>(mMethods);
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                closeQuietly(socket);
+            }
+        }
+        mThread.join();
+    }
+
+    private void acceptAll() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Shut down
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            new Thread("FakeHttpServer connection") {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.US_ASCII));
+            final OutputStream out = socket.getOutputStream();
+            while (true) {
+                String line = in.readLine();
+                if (line == null || line.isEmpty()) {
+                    return;
+                }
+                mMethods.add(line.substring(0, Math.max(line.indexOf(' '), 0)));
+                boolean close = !mKeepAlive;
+                // Skip the headers, minding whether the client wants to close
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    if (line.equalsIgnoreCase("Connection: close")) {
+                        close = true;
+                    }
+                }
+                if (line == null) {
+                    return;
+                }
+                mRequestCount.incrementAndGet();
+                if (mResponseCode == HANG) {
+                    // Until the client gives up or the server shuts down
+                    while (in.read() != -1) {
+                    }
+                    return;
+                }
+                final StringBuilder response = new StringBuilder();
+                response.append("HTTP/1.1 ").append(mResponseCode).append(" Stand-in\r\n");
+                if (mResponseCode == 302) {
+                    response.append("Location: http://portal.invalid/login\r\n");
+                }
+                response.append("Content-Length: 0\r\n");
+                response.append(close ? "Connection: close\r\n\r\n" : "\r\n");
+                out.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
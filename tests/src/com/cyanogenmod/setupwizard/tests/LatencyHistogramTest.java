@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import com.cyanogenmod.setupwizard.util.LatencyHistogram;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketBounds() {
+        final LatencyHistogram histogram = new LatencyHistogram(new long[] { 10, 100 });
+        assertEquals(3, histogram.getBucketCount());
+        histogram.record(0);
+        histogram.record(9);
+        histogram.record(10);
+        histogram.record(99);
+        histogram.record(100);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(6, histogram.getTotalCount());
+        assertEquals("<10ms=2 <100ms=2 >=100ms=2", histogram.toString());
+    }
+
+    public void testBoundsAreCopied() {
+        final long[] bounds = { 10, 100 };
+        final LatencyHistogram histogram = new LatencyHistogram(bounds);
+        bounds[0] = 1000;
+        histogram.record(50);
+        assertEquals(1, histogram.getCount(1));
+    }
+
+    public void testReset() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(20);
+        histogram.record(20000);
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+    }
+
+    public void testConcurrentRecords() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threadCount = 4;
+        final int records = 10000;
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < records; j++) {
+                        histogram.record(j % 6000);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * records, histogram.getTotalCount());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import com.cyanogenmod.setupwizard.ui.LocalePicker;
+
+/**
+ * Drags the selector wheel through the full language list and checks that
+ * scrolling and drawing the wheel allocates nothing per frame.
+ */
+public class LocalePickerAllocationTest extends InstrumentationTestCase {
+
+    private static final String TAG = LocalePickerAllocationTest.class.getSimpleName();
+
+    private static final int SCROLL_STEP = 12;
+
+    public void testScrollDoesNotAllocate() {
+        final String[] labels = LocalePickers.loadLanguageLabels();
+        final int[] result = new int[3];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final LocalePicker picker = LocalePickers.create(
+                        getInstrumentation().getTargetContext(), labels);
+                // As the welcome page shows it
+                picker.setSelectorRenderCacheEnabled(true);
+                final Canvas canvas = LocalePickers.createCanvas(picker);
+                final int[] changes = new int[1];
+                picker.setOnValueChangedListener(new LocalePicker.OnValueChangeListener() {
+                    @Override
+                    public void onValueChange(LocalePicker view, int oldVal, int newVal) {
+                        changes[0]++;
+                    }
+                });
+
+                // Events are obtained up front so only the picker is measured. The
+                // first move goes past the touch slop and starts the touch scroll,
+                // every one after it scrolls the wheel like a fling frame would.
+                final int count = labels.length * picker.getHeight() / SCROLL_STEP;
+                final MotionEvent[] warmUp = obtainMoves(count / 4);
+                final MotionEvent[] moves = obtainMoves(count);
+                try {
+                    drag(picker, canvas, warmUp);
+                    final int warmUpChanges = changes[0];
+
+                    Debug.startAllocCounting();
+                    try {
+                        Debug.resetThreadAllocCount();
+                        drag(picker, canvas, moves);
+                        result[0] = Debug.getThreadAllocCount();
+                        result[1] = Debug.getThreadAllocSize();
+                    } finally {
+                        Debug.stopAllocCounting();
+                    }
+                    result[2] = changes[0] - warmUpChanges;
+                } finally {
+                    recycle(warmUp);
+                    recycle(moves);
+                }
+            }
+        });
+        Log.i(TAG, String.format("%d languages, %d values scrolled: %d allocations, %d bytes",
+                labels.length, result[2], result[0], result[1]));
+        assertTrue("the wheel went past " + result[2] + " of " + labels.length + " values",
+                result[2] >= labels.length);
+        assertEquals(0, result[0]);
+    }
+
+    private static MotionEvent[] obtainMoves(int count) {
+        final long downTime = SystemClock.uptimeMillis();
+        final MotionEvent[] moves = new MotionEvent[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = MotionEvent.obtain(downTime, downTime + i * 16,
+                    MotionEvent.ACTION_MOVE, 0, -i * SCROLL_STEP, 0);
+        }
+        return moves;
+    }
+
+    private static void drag(LocalePicker picker, Canvas canvas, MotionEvent[] moves) {
+        for (MotionEvent move : moves) {
+            picker.onTouchEvent(move);
+            picker.draw(canvas);
+        }
+    }
+
+    private static void recycle(MotionEvent[] events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.ui.LocalePicker;
+
+import java.util.Arrays;
+
+/**
+ * Scrolls the selector wheel through the full language list and times every
+ * frame it draws, with and without the selector render cache.
+ */
+public class LocalePickerFrameBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = LocalePickerFrameBenchmark.class.getSimpleName();
+
+    // Pixels scrolled per frame, about what a slow fling moves
+    private static final int SCROLL_STEP = 12;
+
+    private static final long FRAME_BUDGET_NANOS = 16000000;
+
+    private String[] mLabels;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLabels = LocalePickers.loadLanguageLabels();
+        assertTrue(mLabels.length > 1);
+    }
+
+    public void testScrollWithoutRenderCache() {
+        runScroll(false);
+    }
+
+    public void testScrollWithRenderCache() {
+        runScroll(true);
+    }
+
+    private void runScroll(final boolean renderCache) {
+        final long[][] frames = new long[1][];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final LocalePicker picker = LocalePickers.create(
+                        getInstrumentation().getTargetContext(), mLabels);
+                picker.setSelectorRenderCacheEnabled(renderCache);
+                final Canvas canvas = LocalePickers.createCanvas(picker);
+                // Warm up
+                scroll(picker, canvas, mLabels.length / 4);
+                frames[0] = scroll(picker, canvas, mLabels.length);
+            }
+        });
+
+        final long[] times = frames[0];
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        final long p90 = times[times.length * 9 / 10];
+        Log.i(TAG, String.format("%d languages, render cache %b: %d frames, mean %d ns, "
+                + "median %d ns, p90 %d ns, worst %d ns", mLabels.length, renderCache,
+                times.length, total / times.length, times[times.length / 2], p90,
+                times[times.length - 1]));
+        assertTrue("p90 frame took " + p90 + " ns", p90 < FRAME_BUDGET_NANOS);
+    }
+
+    /**
+     * Scrolls until {@code values} entries went past the middle of the wheel.
+     *
+     * @return the time taken by each frame
+     */
+    private static long[] scroll(LocalePicker picker, Canvas canvas, int values) {
+        final int[] changes = new int[1];
+        picker.setOnValueChangedListener(new LocalePicker.OnValueChangeListener() {
+            @Override
+            public void onValueChange(LocalePicker view, int oldVal, int newVal) {
+                changes[0]++;
+            }
+        });
+        final int maxFrames = values * picker.getHeight() / SCROLL_STEP + 1;
+        final long[] times = new long[maxFrames];
+        int frame = 0;
+        while (changes[0] < values) {
+            assertTrue("wheel stopped scrolling", frame < maxFrames);
+            final long start = SystemClock.elapsedRealtimeNanos();
+            picker.scrollBy(0, -SCROLL_STEP);
+            picker.draw(canvas);
+            times[frame++] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        picker.setOnValueChangedListener(null);
+        return Arrays.copyOf(times, frame);
+    }
+}
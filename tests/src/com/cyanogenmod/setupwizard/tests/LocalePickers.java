@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.text.TextUtils;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import com.cyanogenmod.setupwizard.ui.LocalePicker;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Builds a laid out {@link LocalePicker} over every language the system ships,
+ * the way the welcome page shows it.
+ */
+final class LocalePickers {
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1000;
+
+    private LocalePickers() {
+    }
+
+    static String[] loadLanguageLabels() {
+        final String[] tags = Resources.getSystem().getAssets().getLocales();
+        Arrays.sort(tags);
+        final String[] labels = new String[tags.length];
+        int count = 0;
+        for (String tag : tags) {
+            final Locale locale = Locale.forLanguageTag(tag.replace('_', '-'));
+            final String label = locale.getDisplayName(locale);
+            if (!TextUtils.isEmpty(label)) {
+                labels[count++] = Character.toUpperCase(label.charAt(0)) + label.substring(1);
+            }
+        }
+        return Arrays.copyOf(labels, count);
+    }
+
+    static LocalePicker create(Context targetContext, String[] labels) {
+        // The selector wheel only exists with the platform number picker style
+        final LocalePicker picker = new LocalePicker(new ContextThemeWrapper(targetContext,
+                android.R.style.Theme_Material_Light));
+        picker.setDisplayedValues(labels);
+        picker.setMaxValue(labels.length - 1);
+        picker.setValue(0);
+        picker.setDescendantFocusability(LocalePicker.FOCUS_BLOCK_DESCENDANTS);
+        picker.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.AT_MOST),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.AT_MOST));
+        picker.layout(0, 0, picker.getMeasuredWidth(), picker.getMeasuredHeight());
+        return picker;
+    }
+
+    static Canvas createCanvas(LocalePicker picker) {
+        return new Canvas(Bitmap.createBitmap(picker.getWidth(), picker.getHeight(),
+                Bitmap.Config.ARGB_8888));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.setup.Page;
+import com.cyanogenmod.setupwizard.setup.PageFactory;
+import com.cyanogenmod.setupwizard.setup.PageList;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Walks every page forwards and backwards the way a Next/Back tap does, once
+ * through {@link PageList}'s skip tables and once the way the old
+ * LinkedHashMap backed list did, for 10, 100 and 1000 pages.
+ */
+public class PageListBenchmark extends TestCase {
+
+    private static final String TAG = PageListBenchmark.class.getSimpleName();
+
+    private static final int ROUNDS = 20;
+
+    public void testNavigation10() {
+        runNavigation(10);
+    }
+
+    public void testNavigation100() {
+        runNavigation(100);
+    }
+
+    public void testNavigation1000() {
+        runNavigation(1000);
+    }
+
+    public void testSkipTableFollowsHiddenChanges() {
+        final StubSetupCallbacks callbacks = new StubSetupCallbacks();
+        final PageList pageList = createPageList(callbacks, 5);
+        assertEquals(1, pageList.getNextVisibleIndex(0));
+        pageList.getFactory(1).setHidden(true);
+        pageList.getFactory(2).setHidden(true);
+        assertEquals(3, pageList.getNextVisibleIndex(0));
+        assertEquals(0, pageList.getPreviousVisibleIndex(3));
+        pageList.getFactory(2).setHidden(false);
+        assertEquals(2, pageList.getNextVisibleIndex(0));
+        assertEquals(-1, pageList.getNextVisibleIndex(4));
+    }
+
+    private void runNavigation(int pageCount) {
+        final StubSetupCallbacks callbacks = new StubSetupCallbacks();
+        final PageList pageList = createPageList(callbacks, pageCount);
+        final LinkedHashMap<String, PageFactory> legacy = new LinkedHashMap<>();
+        for (int i = 0; i < pageCount; i++) {
+            // Hide two pages out of three, as device specific pages often are
+            if (i % 3 != 0) {
+                pageList.getFactory(i).setHidden(true);
+            }
+            legacy.put(pageList.getFactory(i).getKey(), pageList.getFactory(i));
+        }
+
+        // Both walks must visit the same pages
+        int index = 0;
+        while (index >= 0) {
+            final int next = pageList.getNextVisibleIndex(index);
+            assertEquals(legacyNextVisible(legacy, index), next);
+            if (next >= 0) {
+                assertEquals(legacyPreviousVisible(legacy, next),
+                        pageList.getPreviousVisibleIndex(next));
+            }
+            index = next;
+        }
+        assertEquals(legacyWalk(legacy), walk(pageList));
+
+        long indexedNanos = 0;
+        long legacyNanos = 0;
+        int sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            sink += walk(pageList);
+            indexedNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            sink += legacyWalk(legacy);
+            legacyNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        // Wall clock times vary too much on a loaded device to assert on
+        Log.i(TAG, String.format("%d pages: indexed %d ns/walk, legacy %d ns/walk (%d)",
+                pageCount, indexedNanos / ROUNDS, legacyNanos / ROUNDS, sink));
+    }
+
+    private static PageList createPageList(StubSetupCallbacks callbacks, int pageCount) {
+        final PageFactory[] factories = new PageFactory[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            factories[i] = new PageFactory(callbacks, "page" + i, null) {
+                @Override
+                protected Page onCreatePage() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        final PageList pageList = new PageList(factories);
+        callbacks.setPageList(pageList);
+        return pageList;
+    }
+
+    private static int walk(PageList pageList) {
+        int visited = 0;
+        int index = 0;
+        while ((index = pageList.getNextVisibleIndex(index)) >= 0) {
+            visited++;
+            final int previous = pageList.getPreviousVisibleIndex(index);
+            visited += previous >= 0 ? 1 : 0;
+        }
+        return visited;
+    }
+
+    private static int legacyWalk(LinkedHashMap<String, PageFactory> legacy) {
+        int visited = 0;
+        int index = 0;
+        while ((index = legacyNextVisible(legacy, index)) >= 0) {
+            visited++;
+            final int previous = legacyPreviousVisible(legacy, index);
+            visited += previous >= 0 ? 1 : 0;
+        }
+        return visited;
+    }
+
+    // What PageList.getPage(int) used to do: walk the values up to the index
+    private static PageFactory legacyGet(LinkedHashMap<String, PageFactory> legacy, int index) {
+        int i = 0;
+        for (PageFactory factory : legacy.values()) {
+            if (i++ == index) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    private static int legacyNextVisible(LinkedHashMap<String, PageFactory> legacy, int index) {
+        for (int i = index + 1; i < legacy.size(); i++) {
+            if (!legacyGet(legacy, i).isHidden()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int legacyPreviousVisible(LinkedHashMap<String, PageFactory> legacy,
+            int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (!legacyGet(legacy, i).isHidden()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+
+import com.cyanogenmod.setupwizard.setup.SetupJournal;
+import com.cyanogenmod.setupwizard.setup.SetupState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SetupJournalTest extends InstrumentationTestCase {
+
+    // Where SetupJournal keeps its file, under the files dir
+    private static final String JOURNAL_FILE = "setup_journal";
+
+    private File mDir;
+    private Context mContext;
+    private SetupJournal mJournal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Keep away from the journal of the app under test
+        mDir = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "journal_test");
+        deleteDir();
+        assertTrue(mDir.mkdirs());
+        mContext = new ContextWrapper(getInstrumentation().getTargetContext()) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        mJournal = new SetupJournal(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.delete();
+        flush();
+        deleteDir();
+        super.tearDown();
+    }
+
+    public void testEmptyJournal() {
+        assertNull(mJournal.replay());
+    }
+
+    public void testReplay() throws Exception {
+        mJournal.recordNavigation("welcome");
+        mJournal.recordPageData("welcome", data("locale", "en_US"));
+        mJournal.recordNavigation("wifi");
+        flush();
+
+        final SetupState state = new SetupJournal(mContext).replay();
+        assertNotNull(state);
+        assertEquals("wifi", state.currentKey);
+        assertEquals(1, state.data.size());
+        assertBundleEquals(data("locale", "en_US"), state.data.get("welcome"));
+    }
+
+    public void testTornLastRecord() throws Exception {
+        final long goodLength = writeTwoThenThird();
+        final File file = getJournalFile();
+        truncate(file, file.length() - 3);
+        assertTrue(file.length() > goodLength);
+
+        assertStateAfterSecond(new SetupJournal(mContext).replay());
+    }
+
+    public void testChecksumMismatch() throws Exception {
+        writeTwoThenThird();
+        final File file = getJournalFile();
+        // The last byte belongs to the payload of the third record
+        flipByte(file, file.length() - 1);
+
+        assertStateAfterSecond(new SetupJournal(mContext).replay());
+    }
+
+    public void testCorruptRecordHidesLaterOnes() throws Exception {
+        mJournal.recordNavigation("welcome");
+        flush();
+        final long firstLength = getJournalFile().length();
+        mJournal.recordNavigation("wifi");
+        mJournal.recordNavigation("finish");
+        flush();
+        flipByte(getJournalFile(), firstLength - 1);
+
+        // Replay stops at the first record, the good ones after it are not trusted
+        assertNull(new SetupJournal(mContext).replay());
+    }
+
+    public void testCompaction() throws Exception {
+        int i = 0;
+        while (!mJournal.needsCompaction()) {
+            mJournal.recordNavigation("page" + (i % 5));
+            mJournal.recordPageData("page" + (i % 5), data("visits", Integer.toString(i)));
+            i++;
+        }
+        flush();
+        final long journalLength = getJournalFile().length();
+        final SetupState before = new SetupJournal(mContext).replay();
+        assertNotNull(before);
+
+        final SetupState snapshot = new SetupState(before.currentKey,
+                new boolean[] { false, true, false, false, true }, before.data);
+        mJournal.compact(snapshot);
+        flush();
+        assertTrue(getJournalFile().length() < journalLength);
+        assertFalse(mJournal.needsCompaction());
+        assertStateEquals(snapshot, new SetupJournal(mContext).replay());
+
+        // Records after a compaction still append to the snapshot
+        mJournal.recordNavigation("finish");
+        flush();
+        final SetupState after = new SetupJournal(mContext).replay();
+        assertEquals("finish", after.currentKey);
+        assertTrue(Arrays.equals(snapshot.hidden, after.hidden));
+        assertEquals(snapshot.data.size(), after.data.size());
+    }
+
+    /**
+     * @return The journal length after the second record.
+     */
+    private long writeTwoThenThird() throws InterruptedException {
+        mJournal.recordNavigation("welcome");
+        mJournal.recordPageData("welcome", data("locale", "en_US"));
+        flush();
+        final long length = getJournalFile().length();
+        mJournal.recordNavigation("wifi");
+        flush();
+        assertTrue(getJournalFile().length() > length);
+        return length;
+    }
+
+    private static void assertStateAfterSecond(SetupState state) {
+        assertNotNull(state);
+        assertEquals("welcome", state.currentKey);
+        assertBundleEquals(data("locale", "en_US"), state.data.get("welcome"));
+    }
+
+    private static void assertStateEquals(SetupState expected, SetupState actual) {
+        assertNotNull(actual);
+        assertEquals(expected.currentKey, actual.currentKey);
+        assertTrue(Arrays.equals(expected.hidden, actual.hidden));
+        assertEquals(expected.data.size(), actual.data.size());
+        for (Map.Entry<String, Bundle> entry : expected.data.entrySet()) {
+            assertBundleEquals(entry.getValue(), actual.data.get(entry.getKey()));
+        }
+    }
+
+    private static void assertBundleEquals(Bundle expected, Bundle actual) {
+        assertNotNull(actual);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            assertEquals(expected.get(key), actual.get(key));
+        }
+    }
+
+    private static Bundle data(String key, String value) {
+        final Bundle bundle = new Bundle();
+        bundle.putString(key, value);
+        return bundle;
+    }
+
+    /**
+     * Waits for the journal writes queued so far, they run on the serial executor.
+     */
+    private static void flush() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private File getJournalFile() {
+        return new File(mDir, JOURNAL_FILE);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            final int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void deleteDir() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+}
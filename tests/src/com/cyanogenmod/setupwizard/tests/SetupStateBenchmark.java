@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.setup.SetupState;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+
+/**
+ * Compares the size and save/restore time of {@link SetupState} with the nested
+ * Bundle tree that used to go into the saved instance state.
+ */
+public class SetupStateBenchmark extends TestCase {
+
+    private static final String TAG = SetupStateBenchmark.class.getSimpleName();
+
+    private static final String[] PAGE_KEYS = {
+            "welcome", "datetime", "chooseDataSim", "mobileData", "simMissing", "wifi",
+            "bluetooth", "gmsAccount", "cyanogenSettings", "otherSettings", "finish"
+    };
+
+    private static final int ROUNDS = 1000;
+
+    public void testRoundTrip() {
+        final SetupState state = createState();
+        final SetupState restored = SetupState.fromByteArray(state.toByteArray());
+        assertNotNull(restored);
+        assertEquals(state.currentKey, restored.currentKey);
+        assertEquals(state.hidden.length, restored.hidden.length);
+        for (int i = 0; i < state.hidden.length; i++) {
+            assertEquals(state.hidden[i], restored.hidden[i]);
+        }
+        assertEquals(state.data.keySet(), restored.data.keySet());
+        for (String key : state.data.keySet()) {
+            final Bundle expected = state.data.get(key);
+            final Bundle actual = restored.data.get(key);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String dataKey : expected.keySet()) {
+                assertEquals(expected.get(dataKey), actual.get(dataKey));
+            }
+        }
+    }
+
+    public void testSizeAndTime() {
+        final SetupState state = createState();
+        final int compactSize = state.toByteArray().length;
+        final int bundleSize = marshallBundle(createBundle(state)).length;
+
+        // Warm up
+        int sink = 0;
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            sink += saveAndRestoreCompact(state) + saveAndRestoreBundle(state);
+        }
+
+        long compactNanos = 0;
+        long bundleNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            sink += saveAndRestoreCompact(state);
+            compactNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            sink += saveAndRestoreBundle(state);
+            bundleNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Log.i(TAG, String.format("%d pages: compact %d bytes, %d ns; bundle %d bytes, %d ns (%d)",
+                state.data.size(), compactSize, compactNanos / ROUNDS, bundleSize,
+                bundleNanos / ROUNDS, sink));
+        assertTrue(compactSize < bundleSize);
+    }
+
+    private static SetupState createState() {
+        final boolean[] hidden = new boolean[PAGE_KEYS.length];
+        final HashMap<String, Bundle> data = new HashMap<>();
+        for (int i = 0; i < PAGE_KEYS.length; i++) {
+            hidden[i] = i % 4 == 3;
+            final Bundle pageData = new Bundle();
+            pageData.putBoolean("send_metrics", true);
+            pageData.putBoolean("enable_nav_keys", false);
+            pageData.putInt("action", i);
+            pageData.putLong("completed", 1420070400000L + i);
+            pageData.putString("argument", PAGE_KEYS[i]);
+            data.put(PAGE_KEYS[i], pageData);
+        }
+        return new SetupState(PAGE_KEYS[PAGE_KEYS.length / 2], hidden, data);
+    }
+
+    // What AbstractSetupData.save() used to build, one Bundle per page
+    private static Bundle createBundle(SetupState state) {
+        final Bundle bundle = new Bundle();
+        for (String key : state.data.keySet()) {
+            bundle.putBundle(key, new Bundle(state.data.get(key)));
+        }
+        final Bundle outState = new Bundle();
+        outState.putBundle("data", bundle);
+        return outState;
+    }
+
+    private static int saveAndRestoreCompact(SetupState state) {
+        final SetupState restored = SetupState.fromByteArray(state.toByteArray());
+        int values = 0;
+        for (Bundle pageData : restored.data.values()) {
+            values += pageData.size();
+        }
+        return values;
+    }
+
+    private static int saveAndRestoreBundle(SetupState state) {
+        final byte[] bytes = marshallBundle(createBundle(state));
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            final Bundle outState = parcel.readBundle(SetupStateBenchmark.class.getClassLoader());
+            // load() walked every page Bundle, which unparcels it
+            final Bundle bundle = outState.getBundle("data");
+            int values = 0;
+            for (String key : bundle.keySet()) {
+                values += bundle.getBundle(key).size();
+            }
+            return values;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] marshallBundle(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import com.cyanogenmod.setupwizard.setup.FinishTask;
+import com.cyanogenmod.setupwizard.setup.Page;
+import com.cyanogenmod.setupwizard.setup.PageList;
+import com.cyanogenmod.setupwizard.setup.SetupDataCallbacks;
+
+/**
+ * Callbacks which only keep a {@link PageList} in sync with hidden state changes.
+ */
+public class StubSetupCallbacks implements SetupDataCallbacks {
+
+    private PageList mPageList;
+    private int mPageTreeChangedCount;
+
+    public void setPageList(PageList pageList) {
+        mPageList = pageList;
+    }
+
+    public int getPageTreeChangedCount() {
+        return mPageTreeChangedCount;
+    }
+
+    @Override
+    public void onPageTreeChanged() {
+        mPageTreeChangedCount++;
+        if (mPageList != null) {
+            mPageList.invalidateVisibility();
+        }
+    }
+
+    @Override
+    public void onNextPage() {}
+
+    @Override
+    public void onPreviousPage() {}
+
+    @Override
+    public void onPageLoaded(Page page) {}
+
+    @Override
+    public void onFinish() {}
+
+    @Override
+    public void finishSetup() {}
+
+    @Override
+    public boolean isCurrentPage(Page page) {
+        return false;
+    }
+
+    @Override
+    public Page getPage(String key) {
+        return mPageList != null ? mPageList.getPage(key) : null;
+    }
+
+    @Override
+    public Page getPage(int key) {
+        return mPageList != null ? mPageList.getPage(key) : null;
+    }
+
+    @Override
+    public void addFinishRunnable(FinishTask task) {}
+}
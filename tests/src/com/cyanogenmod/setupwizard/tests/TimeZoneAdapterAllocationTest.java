@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.BaseAdapter;
+import android.widget.FrameLayout;
+import android.widget.SimpleAdapter;
+
+import com.cyanogenmod.setupwizard.setup.DateTimePage;
+import com.cyanogenmod.setupwizard.setup.TimeZoneCatalog;
+
+import org.namelessrom.setupwizard.R;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Counts the objects allocated to build the timezone spinner adapter, select the
+ * default zone and bind every row, for the old SimpleAdapter and the new one.
+ * Both builds start from the loaded catalog.
+ */
+public class TimeZoneAdapterAllocationTest extends InstrumentationTestCase {
+
+    private static final String TAG = TimeZoneAdapterAllocationTest.class.getSimpleName();
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_DISPLAYNAME = "name";
+    private static final String KEY_GMT = "gmt";
+    private static final String KEY_OFFSET = "offset";
+
+    private Context mContext;
+    // Where each build found the zone it was asked to select
+    private int mLegacyPosition;
+    private int mNewPosition;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        // Loaded once per process by the app, keep that out of the counts
+        TimeZoneCatalog.getInstance(mContext);
+    }
+
+    public void testSamePositions() {
+        final String[] ids = { TimeZone.getDefault().getID(), "Europe/London",
+                "America/Los_Angeles", "No/Such_Zone" };
+        for (String id : ids) {
+            final SimpleAdapter legacy = buildLegacy(id);
+            final DateTimePage.TimeZoneAdapter adapter = buildNew(id);
+            assertEquals(id, mLegacyPosition, mNewPosition);
+            if (mNewPosition >= 0) {
+                assertEquals(id, adapter.getItem(mNewPosition).id);
+                assertEquals(id, ((HashMap<?, ?>) legacy.getItem(mLegacyPosition)).get(KEY_ID));
+            }
+        }
+        assertEquals(-1, mNewPosition);
+    }
+
+    public void testNewAdapterBindAllocatesLess() {
+        final String defaultId = TimeZone.getDefault().getID();
+
+        // Warm up both paths so class loading is not counted
+        buildLegacy(defaultId);
+        buildNew(defaultId);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            final SimpleAdapter legacy = buildLegacy(defaultId);
+            final int legacyBuild = Debug.getThreadAllocCount();
+
+            // Includes the search index, which the old adapter had no equivalent of
+            Debug.resetThreadAllocCount();
+            final DateTimePage.TimeZoneAdapter adapter = buildNew(defaultId);
+            final int newBuild = Debug.getThreadAllocCount();
+            assertEquals(mLegacyPosition, mNewPosition);
+
+            final FrameLayout parent = new FrameLayout(mContext);
+            final View legacyView = legacy.getView(0, null, parent);
+            final View newView = adapter.getView(0, null, parent);
+
+            Debug.resetThreadAllocCount();
+            bindAll(legacy, legacyView, parent);
+            final int legacyBind = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            bindAll(adapter, newView, parent);
+            final int newBind = Debug.getThreadAllocCount();
+
+            Log.i(TAG, String.format("build: legacy %d, new %d; bind: legacy %d, new %d",
+                    legacyBuild, newBuild, legacyBind, newBind));
+            assertEquals(legacy.getCount(), adapter.getCount());
+            assertTrue(newBind <= legacyBind);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private DateTimePage.TimeZoneAdapter buildNew(String defaultId) {
+        final DateTimePage.TimeZoneAdapter adapter =
+                new DateTimePage.TimeZoneAdapter(mContext, DateTimePage.loadZones(mContext));
+        mNewPosition = adapter.getPosition(defaultId);
+        return adapter;
+    }
+
+    private static void bindAll(BaseAdapter adapter, View convertView, FrameLayout parent) {
+        final int count = adapter.getCount();
+        for (int i = 0; i < count; i++) {
+            adapter.getView(i, convertView, parent);
+        }
+    }
+
+    // DateTimePage.constructTimezoneAdapter() and getTimeZoneIndex() before the rewrite
+    private SimpleAdapter buildLegacy(String defaultId) {
+        final TimeZoneCatalog catalog = TimeZoneCatalog.getInstance(mContext);
+        final List<HashMap<String, Object>> rows = new ArrayList<HashMap<String, Object>>();
+        for (int i = 0; i < catalog.size(); i++) {
+            final HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put(KEY_ID, catalog.getId(i));
+            map.put(KEY_DISPLAYNAME, catalog.getDisplayName(i));
+            map.put(KEY_GMT, catalog.getGmtLabel(i));
+            map.put(KEY_OFFSET, catalog.getOffset(i));
+            rows.add(map);
+        }
+        Collections.sort(rows, new LegacyComparator(KEY_OFFSET));
+        final SimpleAdapter adapter = new SimpleAdapter(mContext, rows,
+                R.layout.date_time_setup_custom_list_item_2,
+                new String[] {KEY_DISPLAYNAME, KEY_GMT},
+                new int[] {android.R.id.text1, android.R.id.text2});
+        int index = -1;
+        for (int i = 0; i < adapter.getCount(); i++) {
+            final HashMap<?, ?> map = (HashMap<?, ?>) adapter.getItem(i);
+            if (defaultId.equals(map.get(KEY_ID))) {
+                index = i;
+                break;
+            }
+        }
+        mLegacyPosition = index;
+        return adapter;
+    }
+
+    private static class LegacyComparator implements Comparator<HashMap<?, ?>> {
+        private final String mSortingKey;
+
+        LegacyComparator(String sortingKey) {
+            mSortingKey = sortingKey;
+        }
+
+        @SuppressWarnings("unchecked")
+        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
+            Object value1 = map1.get(mSortingKey);
+            Object value2 = map2.get(mSortingKey);
+            if (!(value1 instanceof Comparable)) {
+                return value2 instanceof Comparable ? 1 : 0;
+            } else if (!(value2 instanceof Comparable)) {
+                return -1;
+            }
+            return ((Comparable) value1).compareTo(value2);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.test.InstrumentationTestCase;
+
+import com.cyanogenmod.setupwizard.setup.TimeZoneCatalog;
+
+import org.namelessrom.setupwizard.R;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Checks that {@link TimeZoneCatalog} yields exactly what parsing timezones.xml
+ * the way DateTimePage used to did: same order, ids, names, offsets and labels.
+ */
+public class TimeZoneCatalogTest extends InstrumentationTestCase {
+
+    private static final String XMLTAG_TIMEZONE = "timezone";
+
+    private static final int HOURS_1 = 60 * 60000;
+
+    public void testMatchesXmlParsing() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+        final TimeZoneCatalog catalog = TimeZoneCatalog.getInstance(context);
+        final ArrayList<String[]> legacy = parseLegacy(context);
+
+        assertTrue(legacy.size() > 0);
+        assertEquals(legacy.size(), catalog.size());
+        final long date = Calendar.getInstance().getTimeInMillis();
+        for (int i = 0; i < legacy.size(); i++) {
+            final String[] row = legacy.get(i);
+            assertEquals(row[0], catalog.getId(i));
+            assertEquals(row[1], catalog.getDisplayName(i));
+            // Offsets are taken at load time, only compare them away from a DST switch
+            final int offset = TimeZone.getTimeZone(row[0]).getOffset(date);
+            if (offset == catalog.getOffset(i)) {
+                assertEquals(formatGmtOffset(offset), catalog.getGmtLabel(i));
+            }
+        }
+    }
+
+    // DateTimePage.getZones() before the catalog, minus the HashMap per row
+    private static ArrayList<String[]> parseLegacy(Context context)
+            throws XmlPullParserException, IOException {
+        final ArrayList<String[]> rows = new ArrayList<String[]>();
+        final XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
+        try {
+            while (xrp.next() != XmlResourceParser.START_TAG)
+                continue;
+            xrp.next();
+            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
+                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
+                        return rows;
+                    }
+                    xrp.next();
+                }
+                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
+                    String id = xrp.getAttributeValue(0);
+                    String displayName = xrp.nextText();
+                    rows.add(new String[] { id, displayName });
+                }
+                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                    xrp.next();
+                }
+                xrp.next();
+            }
+        } finally {
+            xrp.close();
+        }
+        return rows;
+    }
+
+    private static String formatGmtOffset(int offset) {
+        final int p = Math.abs(offset);
+        final StringBuilder name = new StringBuilder();
+        name.append("GMT");
+        if (offset < 0) {
+            name.append('-');
+        } else {
+            name.append('+');
+        }
+        name.append(p / (HOURS_1));
+        name.append(':');
+        int min = p / 60000;
+        min %= 60;
+        if (min < 10) {
+            name.append('0');
+        }
+        name.append(min);
+        return name.toString();
+    }
+}
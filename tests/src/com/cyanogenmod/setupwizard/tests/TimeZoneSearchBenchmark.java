@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.setupwizard.tests;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.cyanogenmod.setupwizard.setup.TimeZoneCatalog;
+import com.cyanogenmod.setupwizard.setup.TimeZoneSearchIndex;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Types queries into {@link TimeZoneSearchIndex} one key at a time over the full
+ * catalog and checks each keystroke stays under a millisecond.
+ */
+public class TimeZoneSearchBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = TimeZoneSearchBenchmark.class.getSimpleName();
+
+    private static final String[] QUERIES = {
+            "america/new york", "london", "kolkata", "los angeles", "tokyo", "gmt",
+            "europe/berlin", "pacific", "s", "buenos aires"
+    };
+
+    private static final long KEYSTROKE_BUDGET_NANOS = 1000000;
+
+    private static final int ROUNDS = 10;
+
+    private TimeZoneCatalog mCatalog;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCatalog = TimeZoneCatalog.getInstance(getInstrumentation().getTargetContext());
+    }
+
+    public void testKeystrokeLatency() {
+        final boolean[] matches = new boolean[mCatalog.size()];
+        // Warm up
+        typeAll(new TimeZoneSearchIndex(mCatalog), matches, new long[1]);
+
+        final long[] worst = new long[1];
+        long total = 0;
+        int keystrokes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            final TimeZoneSearchIndex index = new TimeZoneSearchIndex(mCatalog);
+            total += typeAll(index, matches, worst);
+            for (String query : QUERIES) {
+                keystrokes += query.length();
+            }
+        }
+        final long mean = total / keystrokes;
+        Log.i(TAG, String.format("%d zones: mean %d ns, worst %d ns per keystroke",
+                mCatalog.size(), mean, worst[0]));
+        assertTrue("mean keystroke took " + mean + " ns", mean < KEYSTROKE_BUDGET_NANOS);
+    }
+
+    public void testMatchesFullScan() {
+        final boolean[] matches = new boolean[mCatalog.size()];
+        final boolean[] expected = new boolean[mCatalog.size()];
+        for (String query : QUERIES) {
+            // Typed key by key, so narrowing from the previous result is exercised
+            final TimeZoneSearchIndex index = new TimeZoneSearchIndex(mCatalog);
+            for (int i = 1; i <= query.length(); i++) {
+                final String typed = query.substring(0, i);
+                final int found = index.search(typed, matches);
+                final int expectedFound = scan(typed, expected);
+                assertEquals(typed, expectedFound, found);
+                assertTrue(typed, Arrays.equals(expected, matches));
+            }
+        }
+    }
+
+    private static long typeAll(TimeZoneSearchIndex index, boolean[] matches, long[] worst) {
+        long total = 0;
+        for (String query : QUERIES) {
+            for (int i = 1; i <= query.length(); i++) {
+                final String typed = query.substring(0, i);
+                final long start = SystemClock.elapsedRealtimeNanos();
+                index.search(typed, matches);
+                final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+                total += elapsed;
+                worst[0] = Math.max(worst[0], elapsed);
+            }
+        }
+        return total;
+    }
+
+    private int scan(String query, boolean[] matches) {
+        final String prefix = query.trim().toLowerCase(Locale.ROOT);
+        int found = 0;
+        for (int i = 0; i < mCatalog.size(); i++) {
+            matches[i] = matchesWord(mCatalog.getDisplayName(i), prefix)
+                    || matchesWord(mCatalog.getId(i).replace('_', ' '), prefix);
+            if (matches[i]) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static boolean matchesWord(String text, String prefix) {
+        final String normalized = text.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < normalized.length(); i++) {
+            if ((i == 0 || isSeparator(normalized.charAt(i - 1)))
+                    && !isSeparator(normalized.charAt(i))
+                    && normalized.startsWith(prefix, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '/' || c == '-' || c == '(' || c == ',';
+    }
+}